@@ -0,0 +1,152 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each kind of query GitFunctions makes, against a student repository generated at setup
+ * by RepositoryGenerator. Every branch is merged back and the repository has one large file.
+ *
+ * A warm session is kept for the whole trial, so the walk and caches it holds are already filled, as they are
+ * for every rule but the first checked against a repository. A cold session is started before each query, so
+ * it pays for reading the history and trees itself. Only the session is new; the repository stays open, so
+ * JGit's pack cache is warm either way. A setup per invocation adds some timing noise to the shortest queries.
+ *
+ * Run with: gradle jmh -PjmhArgs="GitFunctionsBenchmark -p historyDepth=1000 -p session=cold"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GitFunctionsBenchmark {
+
+    private static final int COMMITS_PER_BRANCH = 3;
+    private static final String COLD = "cold";
+
+    @Param({"100", "1000"})
+    int historyDepth;
+
+    @Param({"1", "10"})
+    int branchCount;
+
+    @Param({"10", "500"})
+    int treeWidth;
+
+    @Param({"1024", "1048576"})
+    int blobSize;
+
+    @Param({COLD, "warm"})
+    String session;
+
+    private File folder;
+    private Repository repo;
+    private GitFunctions gitFunctions;
+    private RevCommit head;
+    private String oldestMessage;
+    private String lastBranch;
+    private String lastBranchMessage;
+    private String mergedMessage;
+    private String middlePath;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setCommitsPerStudent(historyDepth);
+        generator.setBranchesPerStudent(branchCount);
+        generator.setCommitsPerBranch(COMMITS_PER_BRANCH);
+        generator.setMergeProbability(1);
+        generator.setTreeWidth(treeWidth);
+        generator.setLargeBlobsPerStudent(1);
+        generator.setLargeBlobSize(blobSize);
+
+        folder = Files.createTempDirectory("gitruler-bench").toFile();
+        repo = generator.generateStudent(folder, 0);
+        gitFunctions = new GitFunctions(repo);
+        head = gitFunctions.findCommit(Constants.HEAD).get();
+
+        oldestMessage = RepositoryGenerator.STARTER_MESSAGE + 0;
+        lastBranch = RepositoryGenerator.BRANCH_PREFIX + (branchCount - 1);
+        lastBranchMessage = lastBranch + " commit 0";
+        mergedMessage = lastBranch + " commit " + (COMMITS_PER_BRANCH - 1);
+        middlePath = RepositoryGenerator.filePath(treeWidth / 2);
+    }
+
+    @Setup(Level.Invocation)
+    public void startColdSession() throws IOException {
+
+        if (COLD.equals(session)) {
+            gitFunctions.close();
+            gitFunctions = new GitFunctions(repo);
+            head = gitFunctions.findCommit(Constants.HEAD).get();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        gitFunctions.close();
+        repo.close();
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public Optional<RevCommit> messageLookup() throws IOException {
+        return gitFunctions.getCommitWithMessageContaining(oldestMessage, false);
+    }
+
+    @Benchmark
+    public Optional<RevCommit> messageLookupMissing() throws IOException {
+        return gitFunctions.getCommitWithMessageContaining("no commit has this message", true);
+    }
+
+    @Benchmark
+    public boolean pathLookup() throws IOException {
+        return gitFunctions.pathExistsInCommit(head, middlePath);
+    }
+
+    @Benchmark
+    public boolean pathLookupMissing() throws IOException {
+        return gitFunctions.pathExistsInCommit(head, "no/such/path");
+    }
+
+    @Benchmark
+    public boolean pathHistoryLookup() throws IOException {
+        return gitFunctions.lastCommitMessageForFileContainsString(middlePath, RepositoryGenerator.STUDENT_MESSAGE, false);
+    }
+
+    @Benchmark
+    public BranchSearchResult branchMembership() throws Exception {
+        return gitFunctions.wasCommitWithMessageMadeOnBranch(lastBranch, lastBranchMessage, false);
+    }
+
+    @Benchmark
+    public BranchSearchResult branchMembershipMissingBranch() throws Exception {
+        return gitFunctions.wasCommitWithMessageMadeOnBranch("no-such-branch", lastBranchMessage, false);
+    }
+
+    @Benchmark
+    public BranchSearchResult mergeDetection() throws Exception {
+        return gitFunctions.isChildOfCommitOnBranch(Constants.MASTER, mergedMessage, false);
+    }
+
+    @Benchmark
+    public boolean blobContains() throws IOException {
+        return gitFunctions.getContentsOfFileInCommit(head, RepositoryGenerator.largeBlobPath(0)).get().contains(RepositoryGenerator.LARGE_BLOB_MARKER);
+    }
+
+    @Benchmark
+    public int commitCount() throws IOException {
+        return gitFunctions.getNumberOfCommits();
+    }
+}
@@ -0,0 +1,282 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import picocli.CommandLine;
+import picocli.CommandLine.Option;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * End to end benchmark of batch grading. Generates a cohort of student repositories, grades them all
+ * with the generated rules and reports repositories per second, per repository latency, peak heap and
+ * allocation rate.
+ *
+ * Used by the perfCheck gradle task, which fails if throughput has dropped below the stored baseline.
+ */
+@CommandLine.Command(name = "perfCheck", mixinStandardHelpOptions = true,
+        description = "Grades generated repositories and compares the throughput with a baseline.")
+public class ThroughputBenchmark implements Runnable {
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+    private static final double BYTES_PER_MB = 1024d * 1024d;
+    private static final String REPOS_PER_SECOND = "repos-per-second";
+    private static final String WORKLOAD = "workload";
+
+    @Option(names = { "--repos" }, description = "The number of repositories to grade. Default 200")
+    private int repositories = 200;
+
+    @Option(names = { "--commits" }, description = "The number of commits each student makes. Default 40")
+    private int commits = 40;
+
+    @Option(names = { "--branches" }, description = "The number of branches each student creates. Default 2")
+    private int branches = 2;
+
+    @Option(names = { "--large-blobs" }, description = "The number of large files each student commits. Default 0")
+    private int largeBlobs = 0;
+
+    @Option(names = { "--warmup" }, description = "The number of unmeasured runs first. Default 2")
+    private int warmupRuns = 2;
+
+    @Option(names = { "--runs" }, description = "The number of measured runs. The median throughput is used. Default 3")
+    private int runs = 3;
+
+    @Option(names = { "--baseline" }, paramLabel = "File Path", description = "The properties file holding the baseline throughput")
+    private File baselineFile;
+
+    @Option(names = { "--tolerance" }, description = "How far below the baseline throughput can drop before failing. Default 0.3")
+    private double tolerance = 0.3;
+
+    @Option(names = { "--update-baseline" }, description = "Write this run's throughput as the new baseline rather than checking it")
+    private boolean updateBaseline;
+
+    public void run() {
+
+        File folder = null;
+        boolean passed = false;
+        try {
+            folder = Files.createTempDirectory("gitruler-throughput").toFile();
+            passed = measure(folder);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (folder != null) {
+                FileUtils.deleteQuietly(folder);
+            }
+        }
+
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Generate the repositories, grade them and compare with the baseline
+     * @param folder where to generate the repositories
+     * @return false if the throughput regressed
+     * @throws IOException if the repositories couldn't be generated or the baseline couldn't be read or written
+     */
+    private boolean measure(File folder) throws IOException {
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setStudents(repositories);
+        generator.setCommitsPerStudent(commits);
+        generator.setBranchesPerStudent(branches);
+        generator.setLargeBlobsPerStudent(largeBlobs);
+
+        List<File> folders = generator.generateCohort(folder);
+        GitRulerConfig config = new GitRulerConfig(new File(folder, "gitrules.json"));
+
+        // the pack cache a batch run would have with the default thread counts
+        int processors = Runtime.getRuntime().availableProcessors();
+        PackCache.batchDefaults(Runtime.getRuntime().maxMemory(), 4 + processors * 2).install();
+
+        for (int i = 0; i < warmupRuns; i++) {
+            gradeAll(config, folders);
+        }
+
+        List<RunResult> results = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            results.add(gradeAll(config, folders));
+        }
+
+        results.sort(Comparator.comparingDouble(r -> r.reposPerSecond));
+        RunResult median = results.get(results.size() / 2);
+
+        long[] latencies = results.stream().flatMapToLong(r -> Arrays.stream(r.latencies)).sorted().toArray();
+
+        System.out.println(String.format("Repositories:       %d x %d runs", folders.size(), runs));
+        System.out.println(String.format("Throughput:         %.1f repos/s (median)", median.reposPerSecond));
+        System.out.println(String.format("Latency p50:        %.2f ms", ProfileReport.percentile(latencies, 50) / NANOS_PER_MILLI));
+        System.out.println(String.format("Latency p99:        %.2f ms", ProfileReport.percentile(latencies, 99) / NANOS_PER_MILLI));
+        System.out.println(String.format("Peak heap:          %.1f MB", median.peakHeapBytes / BYTES_PER_MB));
+        System.out.println(String.format("Allocation rate:    %.1f MB/s", median.allocatedBytes / BYTES_PER_MB / (median.wallNanos / 1e9)));
+
+        if (baselineFile == null) {
+            return true;
+        }
+
+        Properties baseline = new Properties();
+        if (updateBaseline) {
+            baseline.setProperty(REPOS_PER_SECOND, String.format("%.1f", median.reposPerSecond));
+            baseline.setProperty(WORKLOAD, describeWorkload());
+            try (OutputStream out = new FileOutputStream(baselineFile)) {
+                baseline.store(out, "Throughput baseline for the perfCheck task. Update with gradle perfCheck -PupdateBaseline");
+            }
+            System.out.println("Updated the baseline in " + baselineFile);
+            return true;
+        }
+
+        try (InputStream in = new FileInputStream(baselineFile)) {
+            baseline.load(in);
+        }
+
+        if (!describeWorkload().equals(baseline.getProperty(WORKLOAD))) {
+            System.out.println("The baseline was recorded with a different workload (" + baseline.getProperty(WORKLOAD) + ") so can't be compared");
+            return false;
+        }
+
+        double expected = Double.parseDouble(baseline.getProperty(REPOS_PER_SECOND));
+        double minimum = expected * (1 - tolerance);
+        System.out.println(String.format("Baseline:           %.1f repos/s (minimum %.1f)", expected, minimum));
+
+        if (median.reposPerSecond < minimum) {
+            System.out.println("Throughput regressed by more than " + Math.round(tolerance * 100) + "%");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Describe the settings that affect throughput, so that a baseline is only compared with a run of the same work
+     */
+    private String describeWorkload() {
+        return "repos=" + repositories + " commits=" + commits + " branches=" + branches + " large-blobs=" + largeBlobs + " runs=" + runs;
+    }
+
+    private RunResult gradeAll(GitRulerConfig config, List<File> folders) {
+
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        long[] latencies = new long[folders.size()];
+        int[] graded = {0};
+
+        AllocationSampler sampler = new AllocationSampler();
+        sampler.start();
+        long start = System.nanoTime();
+
+        new BatchRunner(new RepositoryGrader(config)).run(folders, new BatchRunner.Listener<Void>() {
+            @Override
+            public Void repositoryGraded(RepositoryResult result) {
+                latencies[graded[0]++] = result.getGradingNanos();
+                return null;
+            }
+
+            @Override
+            public Void repositoryFailed(File folder, Throwable cause) {
+                throw new IllegalStateException("Could not grade generated repository " + folder, cause);
+            }
+
+            @Override
+            public void inOrder(Void kept) {
+                // nothing is printed
+            }
+        });
+
+        long wallNanos = System.nanoTime() - start;
+        long allocatedBytes = sampler.finish();
+
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+
+        return new RunResult(folders.size() / (wallNanos / 1e9), wallNanos,
+                Arrays.copyOf(latencies, graded[0]), peakHeapBytes, allocatedBytes);
+    }
+
+    private static class RunResult {
+
+        final double reposPerSecond;
+        final long wallNanos;
+        final long[] latencies;
+        final long peakHeapBytes;
+        final long allocatedBytes;
+
+        RunResult(double reposPerSecond, long wallNanos, long[] latencies, long peakHeapBytes, long allocatedBytes) {
+            this.reposPerSecond = reposPerSecond;
+            this.wallNanos = wallNanos;
+            this.latencies = latencies;
+            this.peakHeapBytes = peakHeapBytes;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    /**
+     * Totals the bytes allocated by every thread while running. Threads are sampled every few
+     * milliseconds so that the allocation of worker threads that finish before the end is still counted.
+     */
+    private static class AllocationSampler extends Thread {
+
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final Map<Long, Long> startBytes = new HashMap<>();
+        private final Map<Long, Long> lastBytes = new HashMap<>();
+        private volatile boolean running = true;
+
+        AllocationSampler() {
+            setDaemon(true);
+            sample(startBytes);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                sample(lastBytes);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void sample(Map<Long, Long> into) {
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = threads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    into.put(ids[i], bytes[i]);
+                }
+            }
+        }
+
+        long finish() {
+            running = false;
+            try {
+                join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sample(lastBytes);
+
+            long total = 0;
+            for (Map.Entry<Long, Long> thread : lastBytes.entrySet()) {
+                total += thread.getValue() - startBytes.getOrDefault(thread.getKey(), 0L);
+            }
+            return total;
+        }
+    }
+
+    public static void main(String[] args) {
+        CommandLine.run(new ThroughputBenchmark(), System.out, args);
+    }
+}
@@ -0,0 +1,322 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the results of a batch run on disk as each repository is graded, so that a run that stops part way
+ * can carry on where it left off.
+ *
+ * The journal is a line of JSON for the config followed by a line for each repository graded, with a
+ * fingerprint of its refs. When a run starts with the same config, a repository whose refs still match its
+ * fingerprint is given its results from the journal rather than being graded again. A different config
+ * starts the journal afresh. Lines are forced to the disk every few repositories, and a line cut short by a
+ * crash is dropped when the journal is next opened.
+ *
+ * Repositories are identified by their path from the batch folder, so a journal still works if the
+ * folder is moved or mounted somewhere else.
+ */
+class BatchJournal implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final Writer writer;
+    private final Path baseFolder;
+    private final Map<String, JSONObject> graded;
+    private final int syncEvery;
+    private int unsynced;
+    private IOException failure;
+
+    private BatchJournal(FileChannel channel, File baseFolder, Map<String, JSONObject> graded, int syncEvery) {
+        this.channel = channel;
+        this.baseFolder = baseFolder.toPath().toAbsolutePath().normalize();
+        this.writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.graded = graded;
+        this.syncEvery = Math.max(1, syncEvery);
+    }
+
+    /**
+     * Open a journal, reading the repositories already graded if it was written with the same config
+     * @param file the journal, which is created if it doesn't exist
+     * @param baseFolder the batch folder, which the repositories' paths are kept relative to
+     * @param configFingerprint identifies the config, see {@link #fingerprint(File)}
+     * @param syncEvery how many repositories to write between forcing the journal to the disk
+     * @return the journal, ready for more repositories to be added
+     * @throws IOException if it couldn't be read or written
+     */
+    static BatchJournal open(File file, File baseFolder, String configFingerprint, int syncEvery) throws IOException {
+
+        Map<String, JSONObject> graded = new HashMap<>();
+        long valid = read(file, configFingerprint, graded);
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(valid);
+        channel.position(valid);
+
+        BatchJournal journal = new BatchJournal(channel, baseFolder, graded, syncEvery);
+        if (valid == 0) {
+            JSONObject header = new JSONObject();
+            header.put("config", configFingerprint);
+            journal.writeLine(header);
+            journal.sync();
+        }
+        return journal;
+    }
+
+    /**
+     * Read the repositories in a journal without opening it for writing, e.g. one written by another machine
+     * @param file the journal
+     * @param configFingerprint identifies the config, see {@link #fingerprint(File)}
+     * @return the line for each repository by its path from the batch folder, or none if it was written
+     * with another config
+     * @throws IOException if it couldn't be read
+     */
+    static Map<String, JSONObject> read(File file, String configFingerprint) throws IOException {
+        Map<String, JSONObject> graded = new HashMap<>();
+        read(file, configFingerprint, graded);
+        return graded;
+    }
+
+    /**
+     * @return the length of the journal up to the end of the last line that could be read
+     */
+    private static long read(File file, String configFingerprint, Map<String, JSONObject> graded) throws IOException {
+
+        byte[] contents = file.exists() ? FileUtils.readFileToByteArray(file) : new byte[0];
+
+        // keep every complete line up to the first that can't be read, if the journal is for this config
+        long valid = 0;
+        int start = 0;
+        int end;
+        while ((end = indexOf(contents, (byte) '\n', start)) >= 0) {
+
+            try {
+                JSONObject line = new JSONObject(new String(contents, start, end - start, StandardCharsets.UTF_8));
+                if (start == 0) {
+                    if (!configFingerprint.equals(line.optString("config"))) {
+                        break;
+                    }
+                } else {
+                    graded.put(line.getString("folder"), line);
+                }
+            } catch (JSONException e) {
+                break;
+            }
+
+            start = end + 1;
+            valid = start;
+        }
+        return valid;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Identify a config by its contents
+     * @param configFile the config file
+     * @return the git hash of the file
+     * @throws IOException if it couldn't be read
+     */
+    static String fingerprint(File configFile) throws IOException {
+        try (ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+            return formatter.idFor(Constants.OBJ_BLOB, FileUtils.readFileToByteArray(configFile)).name();
+        }
+    }
+
+    /**
+     * @return how many repositories the journal already has results for
+     */
+    int getGradedCount() {
+        return graded.size();
+    }
+
+    /**
+     * Get the results of a repository from the journal, if it was graded with the refs it has now.
+     * Can be called from any thread.
+     * @param folder the repository's folder
+     * @param refsFingerprint the fingerprint of its refs now, see {@link GitInteractor#fingerprintRefs()}
+     * @param rules the rules being checked
+     * @return the results, or null if the repository has to be graded
+     */
+    RepositoryResult restore(File folder, String refsFingerprint, List<Rule> rules) {
+
+        JSONObject line = graded.get(key(folder));
+        if (line == null || !refsFingerprint.equals(line.optString("fingerprint"))) {
+            return null;
+        }
+
+        return toResult(line, folder.getPath(), rules);
+    }
+
+    /**
+     * Turn a repository's line from a journal back into its results
+     * @param line the line
+     * @param repositoryPath the path to give the results
+     * @param rules the rules being checked
+     * @return the results, or null if the line can't be read or is for other rules
+     */
+    static RepositoryResult toResult(JSONObject line, String repositoryPath, List<Rule> rules) {
+        try {
+            return readResult(line, repositoryPath, rules);
+        } catch (JSONException e) {
+            // a line this version can't read, so the repository is graded again
+            return null;
+        }
+    }
+
+    private static RepositoryResult readResult(JSONObject line, String repositoryPath, List<Rule> rules) {
+
+        JSONArray results = line.getJSONArray("rules");
+        if (results.length() != rules.size()) {
+            return null;
+        }
+
+        RepositoryResult repositoryResult = new RepositoryResult(repositoryPath);
+        for (int i = 0; i < rules.size(); i++) {
+
+            JSONObject saved = results.getJSONObject(i);
+            if (saved.optBoolean("skipped")) {
+                repositoryResult.add(rules.get(i), null);
+                continue;
+            }
+
+            RuleResult result = new RuleResult(saved.getBoolean("passed"));
+            if (saved.optBoolean("timed-out")) {
+                result.setTimedOut(saved.optString("message"));
+            } else {
+                result.setMessage(saved.optString("message"));
+            }
+            if (saved.has("exception")) {
+                result.setExceptionMessage(saved.getString("exception"));
+                result.exceptionOccurred = true;
+            }
+            repositoryResult.add(rules.get(i), result);
+        }
+
+        if (line.optBoolean("skipped-rules")) {
+            repositoryResult.setSkippedRules();
+        }
+        repositoryResult.setGradingNanos(line.optLong("grading-ns"));
+        return repositoryResult;
+    }
+
+    /**
+     * Add a repository's results to the journal. If the journal can't be written to it is given up on, see
+     * {@link #getFailure()}.
+     * @param folder the repository's folder
+     * @param refsFingerprint the fingerprint of its refs when it was graded
+     * @param result its results
+     */
+    void record(File folder, String refsFingerprint, RepositoryResult result) {
+
+        if (failure != null) {
+            return;
+        }
+
+        JSONArray results = new JSONArray();
+        for (RuleResult ruleResult : result.getResults()) {
+
+            JSONObject saved = new JSONObject();
+            if (ruleResult == null) {
+                saved.put("skipped", true);
+            } else {
+                saved.put("passed", ruleResult.hasPassed());
+                saved.put("message", ruleResult.getMessage());
+                if (ruleResult.isTimedOut()) {
+                    saved.put("timed-out", true);
+                }
+                if (ruleResult.exceptionOccurred) {
+                    saved.put("exception", ruleResult.getExceptionMessage());
+                }
+            }
+            results.put(saved);
+        }
+
+        JSONObject line = new JSONObject();
+        line.put("folder", key(folder));
+        line.put("fingerprint", refsFingerprint);
+        line.put("skipped-rules", result.hasSkippedRules());
+        line.put("grading-ns", result.getGradingNanos());
+        line.put("graded-at", System.currentTimeMillis());
+        line.put("rules", results);
+
+        try {
+            writeLine(line);
+            if (++unsynced >= syncEvery) {
+                sync();
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * @return why the journal stopped being written to, or null if it didn't
+     */
+    IOException getFailure() {
+        return failure;
+    }
+
+    private String key(File folder) {
+        return relativePath(baseFolder, folder);
+    }
+
+    /**
+     * Get the path of a repository from the batch folder, with forward slashes whatever the platform
+     * @param baseFolder the batch folder, absolute and normalized
+     * @param folder the repository's folder
+     * @return the path, or the absolute path if it isn't under the batch folder
+     */
+    static String relativePath(Path baseFolder, File folder) {
+
+        Path path = folder.toPath().toAbsolutePath().normalize();
+        if (!path.startsWith(baseFolder)) {
+            return path.toString();
+        }
+        return baseFolder.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private void writeLine(JSONObject line) throws IOException {
+        line.write(writer);
+        writer.write('\n');
+    }
+
+    private void sync() throws IOException {
+        writer.flush();
+        channel.force(false);
+        unsynced = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (failure == null) {
+                sync();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
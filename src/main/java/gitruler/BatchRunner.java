@@ -0,0 +1,615 @@
+package gitruler;
+
+import gitruler.exceptions.RuleTimeoutException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Checks the same rules against many repositories, e.g. every student's copy of an exercise.
+ *
+ * The repositories go through a pipeline of stages joined by bounded queues, each stage with its own threads:
+ * open (reading refs, pack indexes and the HEAD tree), index (walking the history once for the rules that
+ * search commit messages) and grade. Opening is mostly waiting on the disk and grading is mostly CPU, so
+ * running them side by side keeps both busy. Results are passed to the listener on the calling thread as
+ * they finish, and a summary of each again in the order of their paths, or the order they were given.
+ *
+ * With virtual threads (Java 21 or later) the stages can be given thousands of threads, as a thread parked
+ * waiting on a file read costs little memory. The number of repositories having their pack files opened
+ * at once is limited separately, so that raising the thread counts doesn't flood the file system.
+ *
+ * Repositories are found by a {@link RepositoryFinder} walking the batch folder, and each is queued to be
+ * opened as soon as it is found. Of those waiting, the biggest are graded first, going by a
+ * {@link RepositorySize} estimate, so that one huge repository isn't left to hold up the end of the run.
+ * How many huge repositories are open at once is limited to bound the heap they need.
+ *
+ * A {@link MemoryGovernor} admits repositories while there is room in the heap budget and gives each a
+ * share to hold its commit index and file contents in, so that a large cohort can't run out of memory.
+ *
+ * With a {@link BatchJournal} each repository's results are written to disk once it is graded, and a
+ * repository already in the journal with the same refs is given its results from there without being
+ * opened for grading.
+ *
+ * With a {@link WorkQueue} several machines grade the same batch, each claiming repositories before opening
+ * them and passing over those that another machine has claimed or finished. Once its own are graded a machine
+ * waits for those claimed elsewhere to be finished, and takes over any whose lease is given up or goes stale,
+ * passing on their results after all the others.
+ */
+class BatchRunner {
+
+    /**
+     * Told about each repository as soon as it is finished with, and then again in order once the
+     * repositories before it are finished with too. Always called from the thread that called run.
+     * @param <T> what is kept of each repository until its turn comes, which should be small, e.g. a line
+     *           of output, so that a slow repository doesn't hold up the results of all those after it
+     */
+    interface Listener<T> {
+
+        /**
+         * @param result the results of a repository, in the order they finish
+         * @return what to keep for {@link #inOrder(Object)}, or null if there is nothing
+         */
+        T repositoryGraded(RepositoryResult result);
+
+        /**
+         * @param folder a repository that couldn't be opened or graded, in the order they finish
+         * @param cause why: an IOException if it couldn't be opened, anything else if grading it went wrong
+         * @return what to keep for {@link #inOrder(Object)}, or null if there is nothing
+         */
+        T repositoryFailed(File folder, Throwable cause);
+
+        /**
+         * @param kept what was kept of a repository, in order of the paths or the order the folders were given,
+         *             apart from those taken over from a machine that stopped, which come after the rest
+         */
+        void inOrder(T kept);
+    }
+
+    /** The least a repository is admitted with, however small it looks */
+    private static final long MINIMUM_ADMISSION_BYTES = 1024 * 1024;
+
+    /** Marks the end of a stage's input */
+    private static final Job DONE = new Job(-1, null);
+
+    private final RepositoryGrader grader;
+    private ProfileReport profileReport;
+    private int openThreads = 4;
+    private int indexThreads = Runtime.getRuntime().availableProcessors();
+    private int gradeThreads = Runtime.getRuntime().availableProcessors();
+    private int discoveryThreads = 8;
+    private boolean virtualThreads;
+    private Semaphore packOpens = new Semaphore(64);
+    private long hugeRepositoryBytes = 100L * 1024 * 1024;
+    private Semaphore hugeRepositories = new Semaphore(2);
+    private MemoryGovernor memoryGovernor = new MemoryGovernor(Runtime.getRuntime().maxMemory() / 4 * 3, 512L * 1024 * 1024);
+    private int maxRetainedTraces = 100;
+    private TraceBudget traceBudget;
+    private BatchJournal journal;
+    private WorkQueue workQueue;
+    private List<Rule> rules;
+
+    BatchRunner(RepositoryGrader grader) {
+        this.grader = grader;
+    }
+
+    /**
+     * Record the cost of every rule checked
+     * @param profileReport the report to add measurements to, or null for none
+     */
+    void setProfileReport(ProfileReport profileReport) {
+        this.profileReport = profileReport;
+    }
+
+    /**
+     * @param openThreads how many repositories to open and read ahead at once
+     */
+    void setOpenThreads(int openThreads) {
+        this.openThreads = Math.max(1, openThreads);
+    }
+
+    /**
+     * @param discoveryThreads how many folders to list at once while looking for repositories
+     */
+    void setDiscoveryThreads(int discoveryThreads) {
+        this.discoveryThreads = Math.max(1, discoveryThreads);
+    }
+
+    /**
+     * @param indexThreads how many repositories to build commit indexes for at once
+     */
+    void setIndexThreads(int indexThreads) {
+        this.indexThreads = Math.max(1, indexThreads);
+    }
+
+    /**
+     * @param gradeThreads how many repositories to check rules against at once
+     */
+    void setGradeThreads(int gradeThreads) {
+        this.gradeThreads = Math.max(1, gradeThreads);
+    }
+
+    /**
+     * Run the stages on virtual threads rather than platform threads. Has no effect before Java 21.
+     * @param virtualThreads whether to use virtual threads
+     */
+    void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @param maxPackOpens how many repositories can be opening their pack files at once
+     */
+    void setMaxPackOpens(int maxPackOpens) {
+        this.packOpens = new Semaphore(Math.max(1, maxPackOpens));
+    }
+
+    /**
+     * @param hugeRepositoryBytes the estimated cost above which a repository counts as huge
+     */
+    void setHugeRepositoryBytes(long hugeRepositoryBytes) {
+        this.hugeRepositoryBytes = hugeRepositoryBytes;
+    }
+
+    /**
+     * @param maxHugeRepositories how many huge repositories can be open at once
+     */
+    void setMaxHugeRepositories(int maxHugeRepositories) {
+        this.hugeRepositories = new Semaphore(Math.max(1, maxHugeRepositories));
+    }
+
+    /**
+     * @param memoryGovernor shares the heap between the repositories being graded at once
+     */
+    void setMemoryGovernor(MemoryGovernor memoryGovernor) {
+        this.memoryGovernor = memoryGovernor;
+    }
+
+    /**
+     * @param maxRetainedTraces how many failing results in a run keep their exception's stack trace
+     */
+    void setMaxRetainedTraces(int maxRetainedTraces) {
+        this.maxRetainedTraces = maxRetainedTraces;
+    }
+
+    /**
+     * @param journal where to keep the results of each repository and look for those of earlier runs, or null for nowhere
+     */
+    void setJournal(BatchJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @param workQueue shares the repositories with other machines, or null to grade them all here. The
+     *                  results must be kept in a journal so that they can be merged.
+     */
+    void setWorkQueue(WorkQueue workQueue) {
+        this.workQueue = workQueue;
+    }
+
+    /**
+     * @return how many stack traces the last run didn't keep, or zero if it hasn't run
+     */
+    int getDroppedTraces() {
+        return traceBudget == null ? 0 : traceBudget.getDropped();
+    }
+
+    /**
+     * Grade all of the repositories
+     * @param folders the working folders of the repositories
+     * @param listener told about each repository, in the same order as the folders
+     */
+    <T> void run(List<File> folders, Listener<T> listener) {
+        run(found -> {
+            folders.forEach(found);
+            return folders;
+        }, listener);
+    }
+
+    /**
+     * Find and grade all of the repositories under a folder. They are graded as they are found, without
+     * waiting for the whole tree to be walked.
+     * @param batchFolder the folder to look in, see {@link RepositoryFinder}
+     * @param listener told about each repository, in order of their paths
+     */
+    <T> void run(File batchFolder, Listener<T> listener) {
+        RepositoryFinder finder = new RepositoryFinder(discoveryThreads);
+        run(found -> finder.find(batchFolder, found), listener);
+    }
+
+    private <T> void run(Discovery discovery, Listener<T> listener) {
+
+        traceBudget = new TraceBudget(maxRetainedTraces);
+        rules = new ArrayList<>();
+        grader.getConfig().getRules().forEach(rules::add);
+
+        try {
+            List<File> claimedElsewhere = runPipeline(discovery, listener);
+            if (workQueue != null) {
+                finishClaimedElsewhere(claimedElsewhere, listener);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the repositories that other machines claimed to be done, grading any that are given up or whose
+     * lease goes stale first, as the machine that claimed them has stopped. They are claimed again like any other,
+     * so if several machines are waiting for the same one only one of them grades it.
+     * @param claimedElsewhere the repositories claimed elsewhere, in the order to pass on their results
+     */
+    private <T> void finishClaimedElsewhere(List<File> claimedElsewhere, Listener<T> listener) throws InterruptedException {
+
+        List<File> remaining = claimedElsewhere;
+        while (true) {
+            remaining.removeIf(workQueue::isDone);
+            if (remaining.isEmpty()) {
+                return;
+            }
+
+            Thread.sleep(workQueue.getRetryMillis());
+
+            List<File> folders = remaining;
+            remaining = runPipeline(found -> {
+                folders.forEach(found);
+                return folders;
+            }, listener);
+        }
+    }
+
+    /**
+     * Send the repositories through the stages, passing on their results as they come out
+     * @return those that another machine had claimed, in the order discovery gave
+     */
+    private <T> List<File> runPipeline(Discovery discovery, Listener<T> listener) throws InterruptedException {
+
+        // biggest first of those found so far, and the end of the input after all of them
+        BlockingQueue<Job> toOpen = new PriorityBlockingQueue<>(64, (a, b) -> a == DONE || b == DONE
+                ? Boolean.compare(a == DONE, b == DONE)
+                : Comparator.comparingLong((Job job) -> job.size.getEstimatedCost()).reversed()
+                        .thenComparingInt(job -> job.sequence).compare(a, b));
+        BlockingQueue<Job> toIndex = new ArrayBlockingQueue<>(indexThreads * 2);
+        BlockingQueue<Job> toGrade = new ArrayBlockingQueue<>(gradeThreads * 2);
+        BlockingQueue<Job> toEmit = new ArrayBlockingQueue<>(gradeThreads * 2);
+
+        List<ExecutorService> stages = new ArrayList<>();
+        try {
+            stages.add(startDiscovery(discovery, toOpen, toEmit));
+            stages.add(startStage("open", openThreads, toOpen, toIndex, this::open));
+            stages.add(startStage("index", indexThreads, toIndex, toGrade, this::index));
+            stages.add(startStage("grade", gradeThreads, toGrade, toEmit, this::grade));
+
+            return emit(toEmit, listener);
+
+        } finally {
+            for (ExecutorService stage : stages) {
+                stage.shutdownNow();
+            }
+            for (BlockingQueue<Job> queue : Arrays.asList(toOpen, toIndex, toGrade, toEmit)) {
+                for (Job job : queue) {
+                    job.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the repositories and queue each up for the open stage as soon as it is found. Once all have been
+     * found the order to pass on their results in is sent ahead to the emitter.
+     */
+    private ExecutorService startDiscovery(Discovery discovery, BlockingQueue<Job> toOpen, BlockingQueue<Job> toEmit) {
+
+        ExecutorService pool = newStagePool("discover", 1);
+        pool.execute(() -> {
+            AtomicInteger sequence = new AtomicInteger();
+            List<File> order = Collections.emptyList();
+            try {
+                order = discovery.discover(folder -> {
+                    Job job = new Job(sequence.getAndIncrement(), folder);
+                    job.size = RepositorySize.estimate(folder);
+                    toOpen.add(job);
+                });
+            } catch (IOException ignored) {
+                // the batch folder couldn't be listed, so there is nothing to grade
+            } finally {
+                try {
+                    Job orderJob = new Job(-1, null);
+                    orderJob.order = order;
+                    toEmit.put(orderJob);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                toOpen.add(DONE);
+            }
+        });
+        return pool;
+    }
+
+    private Job open(Job job) throws IOException {
+
+        if (workQueue != null && !workQueue.claim(job.folder)) {
+            job.claimedElsewhere = true;
+            return job;
+        }
+
+        if (journal != null && restore(job)) {
+            return job;
+        }
+
+        try {
+            if (job.size.getEstimatedCost() >= hugeRepositoryBytes) {
+                // held until the repository is closed after grading
+                hugeRepositories.acquire();
+                job.hugePermit = hugeRepositories;
+            }
+            job.memoryBudget = memoryGovernor.admit(Math.max(MINIMUM_ADMISSION_BYTES, job.size.getEstimatedCost()));
+            packOpens.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to open " + job.folder);
+        }
+
+        try {
+            job.git = new GitInteractor(job.folder.getPath());
+            job.git.setProfileReport(profileReport);
+            job.git.setTraceBudget(traceBudget);
+            job.git.setMemoryBudget(job.memoryBudget);
+            job.git.prefetch();
+        } catch (IOException e) {
+            if (job.git == null) {
+                throw e;
+            }
+            // the rules report on a repository that can't be read
+        } finally {
+            packOpens.release();
+        }
+        return job;
+    }
+
+    /**
+     * Give a repository its results from the journal if its refs haven't changed since it was graded.
+     * Only its refs are read, so this happens before it is admitted.
+     * @return true if the results were in the journal
+     */
+    private boolean restore(Job job) throws IOException {
+
+        GitInteractor git = new GitInteractor(job.folder.getPath());
+        try {
+            job.refsFingerprint = git.fingerprintRefs();
+        } finally {
+            git.close();
+        }
+
+        job.result = journal.restore(job.folder, job.refsFingerprint, rules);
+        job.restored = job.result != null;
+        return job.restored;
+    }
+
+    private Job index(Job job) {
+
+        job.git.startTimeBudget(grader.getRepositoryTimeoutMillis());
+
+        if (grader.getPlanner().shouldBuildCommitIndex(grader.getConfig().getRules(), job.size)) {
+            try {
+                job.git.buildCommitIndex();
+            } catch (IOException | RuleTimeoutException ignored) {
+                // without an index the rules walk the history themselves, or time out doing so
+            }
+        }
+
+        try {
+            job.git.captureSnapshot();
+        } catch (IOException ignored) {
+            // the rules read the refs themselves
+        }
+        return job;
+    }
+
+    private Job grade(Job job) {
+        try {
+            job.result = grader.grade(job.git);
+        } finally {
+            job.close();
+        }
+        return job;
+    }
+
+    /**
+     * Pass the results to the listener as they finish, then what it kept of them in the order discovery gave,
+     * holding back any that finish early or before the order is known
+     * @return the repositories that another machine had claimed, in the order discovery gave
+     */
+    private <T> List<File> emit(BlockingQueue<Job> finished, Listener<T> listener) throws InterruptedException {
+
+        // a repository claimed by another machine is kept as null so that its turn is still passed over
+        Map<File, T> waiting = new HashMap<>();
+        Set<File> claimedElsewhere = new HashSet<>();
+        List<File> order = null;
+        int next = 0;
+
+        Job job;
+        while ((job = finished.take()) != DONE) {
+
+            if (job.order != null) {
+                order = job.order;
+            } else if (job.claimedElsewhere) {
+                waiting.put(job.folder, null);
+                claimedElsewhere.add(job.folder);
+            } else if (job.failure != null) {
+                waiting.put(job.folder, listener.repositoryFailed(job.folder, job.failure));
+                complete(job);
+            } else {
+                if (journal != null && !job.restored) {
+                    journal.record(job.folder, job.refsFingerprint, job.result);
+                }
+                waiting.put(job.folder, listener.repositoryGraded(job.result));
+                complete(job);
+            }
+
+            while (order != null && next < order.size() && waiting.containsKey(order.get(next))) {
+                T kept = waiting.remove(order.get(next++));
+                if (kept != null) {
+                    listener.inOrder(kept);
+                }
+            }
+        }
+
+        List<File> claimed = new ArrayList<>();
+        if (order != null) {
+            for (File folder : order) {
+                if (claimedElsewhere.contains(folder)) {
+                    claimed.add(folder);
+                }
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Tell the other machines that a repository has been finished with, unless its result couldn't be kept
+     */
+    private void complete(Job job) {
+
+        if (workQueue == null) {
+            return;
+        }
+
+        if (journal != null && journal.getFailure() != null) {
+            workQueue.release(job.folder);
+            return;
+        }
+
+        try {
+            workQueue.complete(job.folder);
+        } catch (IOException e) {
+            // the lease expires and another machine grades it again
+            workQueue.release(job.folder);
+        }
+    }
+
+    /**
+     * Start the threads of a stage. Each takes jobs from the input until it is done, and the last one to
+     * finish tells the next stage that there are no more.
+     */
+    private ExecutorService startStage(String name, int threads, BlockingQueue<Job> input, BlockingQueue<Job> output, Stage stage) {
+
+        ExecutorService pool = newStagePool(name, threads);
+        AtomicInteger running = new AtomicInteger(threads);
+
+        for (int i = 0; i < threads; i++) {
+            pool.execute(() -> {
+                try {
+                    Job job;
+                    while ((job = input.take()) != DONE) {
+                        output.put(process(stage, job));
+                    }
+
+                    // put it back so the other threads of this stage see it too
+                    input.put(DONE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    // however this thread stopped, the next stage mustn't wait for it forever
+                    if (running.decrementAndGet() == 0) {
+                        try {
+                            output.put(DONE);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+        }
+        return pool;
+    }
+
+    private ExecutorService newStagePool(String name, int threads) {
+
+        ThreadFactory virtualThreadFactory = virtualThreads ? VirtualThreads.factory("gitruler-" + name) : null;
+        if (virtualThreadFactory != null) {
+            return Executors.newFixedThreadPool(threads, virtualThreadFactory);
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gitruler-" + name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run a stage on a job unless an earlier stage already failed it. Anything thrown fails just this
+     * repository, so that one that breaks grading doesn't stop the rest of the batch.
+     */
+    private static Job process(Stage stage, Job job) {
+
+        if (job.failure != null || job.restored || job.claimedElsewhere) {
+            return job;
+        }
+
+        try {
+            return stage.process(job);
+        } catch (Throwable e) {
+            job.failure = e;
+        }
+        job.close();
+        return job;
+    }
+
+    private interface Stage {
+        Job process(Job job) throws IOException;
+    }
+
+    private interface Discovery {
+        /**
+         * @param found told about each repository as soon as it is found
+         * @return every repository found, in the order their results are to be passed on
+         */
+        List<File> discover(Consumer<File> found) throws IOException;
+    }
+
+    /**
+     * A repository on its way through the pipeline
+     */
+    private static class Job {
+
+        final int sequence;
+        final File folder;
+        RepositorySize size;
+        Semaphore hugePermit;
+        MemoryBudget memoryBudget;
+        GitInteractor git;
+        RepositoryResult result;
+        String refsFingerprint;
+        boolean restored;
+        boolean claimedElsewhere;
+        List<File> order;
+        Throwable failure;
+
+        Job(int sequence, File folder) {
+            this.sequence = sequence;
+            this.folder = folder;
+        }
+
+        void close() {
+            if (git != null) {
+                git.close();
+                git = null;
+            }
+            if (memoryBudget != null) {
+                memoryBudget.close();
+                memoryBudget = null;
+            }
+            if (hugePermit != null) {
+                hugePermit.release();
+                hugePermit = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package gitruler;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for reading the contents of a file from the repository.
+ */
+@Name("gitruler.BlobScanned")
+@Label("Blob Scanned")
+@Category("GitRuler")
+@StackTrace(false)
+class BlobScannedEvent extends Event {
+
+    @Label("Repository")
+    String repository;
+
+    @Label("Object Id")
+    String objectId;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+}
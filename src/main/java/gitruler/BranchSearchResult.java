@@ -0,0 +1,17 @@
+package gitruler;
+
+/**
+ * The outcome of looking for a commit with a given message on a branch. Either of the things looked for can be
+ * missing, which is the usual reason a student's rule fails, so this is returned rather than thrown.
+ */
+enum BranchSearchResult {
+
+    FOUND,
+    NOT_ON_BRANCH,
+    NO_SUCH_BRANCH,
+    NO_SUCH_COMMIT;
+
+    boolean isFound() {
+        return this == FOUND;
+    }
+}
@@ -0,0 +1,82 @@
+package gitruler;
+
+import gitruler.exceptions.RuleTimeoutException;
+
+/**
+ * A deadline that walks and file reads check as they go, so that a rule on a huge repository stops
+ * cleanly rather than holding up the rest of the run. A token is checked by the one thread checking
+ * the rule, and remembers whether it ever stopped it, in case the exception was caught along the way.
+ * Another thread can also stop the check early by cancelling the token, or the token it was made from.
+ */
+final class CancellationToken {
+
+    /** A token that never expires */
+    static final CancellationToken NONE = new CancellationToken(0, false, null);
+
+    private final long deadline;
+    private final boolean limited;
+    private final CancellationToken parent;
+    private volatile boolean cancelled;
+    private boolean fired;
+
+    private CancellationToken(long deadline, boolean limited, CancellationToken parent) {
+        this.deadline = deadline;
+        this.limited = limited;
+        this.parent = parent;
+    }
+
+    /**
+     * @param deadline the {@link System#nanoTime()} after which to stop
+     * @return the token
+     */
+    static CancellationToken until(long deadline) {
+        return new CancellationToken(deadline, true, null);
+    }
+
+    /**
+     * @return a token with no deadline, which only stops once it is cancelled
+     */
+    static CancellationToken cancellable() {
+        return new CancellationToken(0, false, null);
+    }
+
+    /**
+     * @param deadline the {@link System#nanoTime()} after which to stop
+     * @return a token that stops at the deadline, or sooner if this one stops
+     */
+    CancellationToken orUntil(long deadline) {
+        return new CancellationToken(deadline, true, this);
+    }
+
+    /**
+     * Stop the check at its next checkpoint. Can be called from any thread.
+     */
+    void cancel() {
+        if (this == NONE) {
+            throw new UnsupportedOperationException("NONE can't be cancelled");
+        }
+        cancelled = true;
+    }
+
+    /**
+     * Stop if the deadline has passed
+     * @throws RuleTimeoutException if it has
+     */
+    void checkpoint() {
+        if (hasExpired()) {
+            fired = true;
+            throw new RuleTimeoutException("Ran out of time");
+        }
+    }
+
+    boolean hasExpired() {
+        return cancelled || (parent != null && parent.hasExpired()) || limited && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @return whether a {@link #checkpoint()} has thrown
+     */
+    boolean hasFired() {
+        return fired;
+    }
+}
@@ -1,13 +1,17 @@
 package gitruler;
 
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
 import org.json.JSONException;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.*;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
 
 @CommandLine.Command(name = "java -jar gitruler.jar", mixinStandardHelpOptions = true, version = "Gitruler 1.1")
 public class Command implements Runnable {
@@ -44,14 +48,131 @@ public class Command implements Runnable {
     @Option(names = { "-s", "--summary" }, description = "Only list the repository name and score. For marking work.")
     private boolean summary;
 
+    @Option(names = { "-b", "--batch" }, paramLabel = "Folder Path", description = "Test each repository in the sub-folders of this folder and list their scores.")
+    private String batchPath;
+
+    @Option(names = { "--rule-threads" }, description = "How many of a repository's rules to check at once. Rules after a stop-on-fail rule wait for it to pass. Default 1")
+    private int ruleThreads = 1;
+
+    @Option(names = { "--speculate" }, description = "With --rule-threads, start the rules after a stop-on-fail rule without waiting for it, and throw their results away if it fails")
+    private boolean speculate;
+
+    @Option(names = { "--repo-timeout-ms" }, description = "How long indexing and checking the rules of one repository can take, in milliseconds. Rules still running when it runs out are stopped and marked as timed out. Default no limit")
+    private long repositoryTimeoutMillis;
+
+    @Option(names = { "--discover-threads" }, description = "In batch mode, how many folders to list at once while looking for repositories. Default 8")
+    private int discoveryThreads = 8;
+
+    @Option(names = { "--open-threads" }, description = "In batch mode, how many repositories to open and read ahead at once. Default 4")
+    private int openThreads = 4;
+
+    @Option(names = { "--index-threads" }, description = "In batch mode, how many repositories to index commit messages for at once. Default the number of processors")
+    private int indexThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = { "--grade-threads" }, description = "In batch mode, how many repositories to check rules against at once. Default the number of processors")
+    private int gradeThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(names = { "--virtual-threads" }, description = "In batch mode, run the open, index and grade threads as virtual threads so that they can be raised into the thousands. Needs Java 21 or later.")
+    private boolean virtualThreads;
+
+    @Option(names = { "--max-pack-opens" }, description = "In batch mode, how many repositories can be opening their pack files at once. Default 64")
+    private int maxPackOpens = 64;
+
+    @Option(names = { "--huge-repo-mb" }, description = "In batch mode, the estimated size in MB above which a repository counts as huge. Default 100")
+    private long hugeRepositoryMegabytes = 100;
+
+    @Option(names = { "--max-huge-repos" }, description = "In batch mode, how many huge repositories can be open at once. Default 2")
+    private int maxHugeRepositories = 2;
+
+    @Option(names = { "--memory-budget-mb" }, description = "In batch mode, how much heap in MB the repositories being graded can hold between them. Default three quarters of the maximum heap")
+    private long memoryBudgetMegabytes = Runtime.getRuntime().maxMemory() / 4 * 3 / (1024 * 1024);
+
+    @Option(names = { "--repo-memory-mb" }, description = "In batch mode, how much heap in MB one repository can hold for its commit index and file contents. Default 512")
+    private long repositoryMemoryMegabytes = 512;
+
+    @Option(names = { "--max-traces" }, description = "In batch mode, how many failing rules keep the stack trace of the exception that failed them. Default 100")
+    private int maxRetainedTraces = 100;
+
+    @Option(names = { "--pack-window-size" }, description = "The size in KB of the windows that pack files are read through, a power of two. Default 8, or 64 in batch mode with a pack cache of 64 MB or more")
+    private Integer packWindowKilobytes;
+
+    @Option(names = { "--pack-cache-limit" }, description = "How much of the pack files in MB to keep in memory between them. Default 10, or an eighth of the maximum heap in batch mode, up to 1024")
+    private Long packCacheMegabytes;
+
+    @Option(names = { "--delta-base-cache" }, description = "How much in MB each reader keeps of the objects that others are stored as changes to. Default 10, or a sixteenth of the maximum heap shared between the readers in batch mode")
+    private Integer deltaBaseCacheMegabytes;
+
+    @Option(names = { "--mmap-packs" }, description = "Memory map pack files rather than copying them into the heap, in 1 MB windows unless --pack-window-size is given. Repositories sharing packs through alternates or hard links share one copy in the page cache.")
+    private boolean mmapPacks;
+
+    @Option(names = { "--mapped-windows" }, description = "With --mmap-packs, how many mapped windows of the pack files the cache keeps, unless --pack-cache-limit is given. Windows it evicts stay mapped until they are garbage collected. Default 1024")
+    private int mappedWindows = 1024;
+
+    @Option(names = { "--open-files" }, description = "How many pack files to keep open at once. Default 128, or four for each reader in batch mode, up to 1024")
+    private Integer packOpenFiles;
+
+    @Option(names = { "--results-ndjson" }, paramLabel = "File Path", description = "In batch mode, also write each rule's result and each repository's score to this file as newline delimited JSON, as they are graded.")
+    private String resultsNdjsonPath;
+
+    @Option(names = { "--results-csv" }, paramLabel = "File Path", description = "In batch mode, also write a gradebook to this CSV file with a row for each repository and a column for each scored rule, as they are graded.")
+    private String resultsCsvPath;
+
+    @Option(names = { "--journal" }, paramLabel = "File Path", description = "In batch mode, keep each repository's results in this file as it is graded. Run again with the same config and journal to carry on where a run stopped, skipping repositories whose refs haven't changed.")
+    private String journalPath;
+
+    @Option(names = { "--journal-sync-every" }, description = "In batch mode, how many repositories to add to the journal between forcing it to the disk. Default 10")
+    private int journalSyncEvery = 10;
+
+    @Option(names = { "--queue-dir" }, paramLabel = "Folder Path", description = "In batch mode, share the repositories with other machines running with the same batch folder, config and queue folder, which all of them must be able to write to.")
+    private String queuePath;
+
+    @Option(names = { "--node" }, description = "With --queue-dir, a name for this machine that the others sharing the queue don't have. Default the process id and host name")
+    private String nodeName = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9._-]", "-");
+
+    @Option(names = { "--lease-seconds" }, description = "With --queue-dir, how long a machine can go without showing it is still grading a repository before another takes it over. Default 300")
+    private long leaseSeconds = 300;
+
+    @Option(names = { "--merge" }, description = "With --queue-dir, print the results every machine has written to the queue, in folder order, and write them to --results-csv or --results-ndjson, without grading anything.")
+    private boolean merge;
+
+    @Option(names = { "--profile" }, description = "Report how long each rule took and how much of the repository it read.")
+    private boolean profile;
+
+    @Option(names = { "--profile-json" }, paramLabel = "File Path", description = "Also write the profile to this file as JSON.")
+    private String profileJsonPath;
+
+    @Option(names = { "--stats-file" }, paramLabel = "File Path", description = "Plan the order rules are checked in from the costs kept in this file, and add this run's costs to it.")
+    private String statsFilePath;
+
+    @Option(names = { "--explain" }, description = "Print what each rule reads, the order they would be checked in, what they share and what they would cost, without checking them.")
+    private boolean explain;
+
     private GitRulerConfig config;
     private GitInteractor git;
+    private ProfileReport profileReport;
+    private PackCache packCache;
+    private RuleCostStats stats;
+    private final List<ResultSink> resultSinks = new ArrayList<>();
+    private ConsoleRenderer console;
 
     public void run() {
 
 
         int exitCode = 1; // So that it can be used to fail a build in continuous integration
 
+        if (profile || profileJsonPath != null || statsFilePath != null) {
+            profileReport = new ProfileReport();
+        }
+
+        configurePackCache();
+
+        readStats();
+
+        if (batchPath != null) {
+            runBatch();
+            return;
+        }
+
         // Read the config
         if (repositoryPath == null){
             repositoryPath = System.getProperty("user.dir");
@@ -64,15 +185,11 @@ public class Command implements Runnable {
             configFilePath = repoRoot + File.separator +  Command.DEFAULT_CONFIG_FILENAME;
         }
 
-        try {
-            File configFile = new File(configFilePath);
-            config = new GitRulerConfig(configFile);
-        } catch (IOException e) {
-            System.out.println("Could not read configuration from " + configFilePath);
-            System.exit(1);
-        } catch (JSONException e) {
-            System.out.println("JSON formatting error in " + configFilePath);
-            System.exit(1);
+        readConfig();
+
+        if (explain) {
+            explain(RepositorySize.estimate(new File(repositoryPath)), countCommits());
+            return;
         }
 
         // Check the there is a repository at the given path
@@ -83,6 +200,8 @@ public class Command implements Runnable {
             System.exit(1);
         }
 
+        git.setProfileReport(profileReport);
+
         try {
             runFileSetup();
         } catch (IOException e) {
@@ -93,32 +212,23 @@ public class Command implements Runnable {
             System.exit(1);
         }
 
-        double totalScore = 0d;
-
         // Process each of the rules
-        boolean skipRemainingRules = false;
-        for (Rule r: config.getRules()){
-
-            RuleResult result = null;
-
-            if (!skipRemainingRules) {
-                result = git.checkRule(r);
-            }
-
+        RepositoryGrader grader = new RepositoryGrader(config);
+        grader.setPlanner(new EvaluationPlanner(stats));
+        grader.setRuleThreads(ruleThreads);
+        grader.setSpeculative(speculate);
+        grader.setRepositoryTimeoutMillis(repositoryTimeoutMillis);
+        StringBuilder line = new StringBuilder();
+        RepositoryResult repositoryResult = grader.grade(git, (rule, result) -> {
             if (!summary) {
-                System.out.println(createOutputFromRuleAndResult(result, r, skipRemainingRules));
+                line.setLength(0);
+                appendRuleOutput(line, result, rule, result == null);
+                System.out.println(line);
             }
+        });
+        double totalScore = repositoryResult.getTotalScore();
 
-            if (!skipRemainingRules && result.hasPassed()){
-                totalScore += r.getScoreIfCorrect();
-            }
-
-            if (!skipRemainingRules && !result.hasPassed() && r.stopOnFail()){
-                skipRemainingRules = true;
-            }
-        }
-
-        if (skipRemainingRules){
+        if (repositoryResult.hasSkippedRules()){
             System.out.println(ANSI_CYAN + "Skipped rules because a critical rule didn't pass" + ANSI_RESET);
         }
 
@@ -134,23 +244,423 @@ public class Command implements Runnable {
             System.out.println();
             String resultOutput;
             if (summary){
-
-                String repoName = "";
-                if (repositoryPath.lastIndexOf("/") > 0){
-                    repoName = repositoryPath.substring(repositoryPath.lastIndexOf("/")+1);
-                }else{
-                    repoName = repositoryPath;
-                }
-                resultOutput = repoName + ": " + formatter.format(totalScore) + " out of " + formatter.format(config.getTotalAvailableScore());
+                resultOutput = appendSummaryOutput(new StringBuilder(), repositoryResult).toString();
             }else{
                 resultOutput = ANSI_CYAN + "Score: " + formatter.format(totalScore) + " out of " + formatter.format(config.getTotalAvailableScore()) + congratulationsString + ANSI_RESET;
             }
 
             System.out.println(resultOutput);
+        }
+
+        packCache.sample();
+        reportProfile();
+        writeStats();
+
+        if (config.getTotalAvailableScore() > 0) {
             System.exit(exitCode);
         }
     }
 
+    /**
+     * Read the rules from the config file, exiting if they can't be read
+     */
+    private void readConfig() {
+
+        try {
+            File configFile = new File(configFilePath);
+            config = new GitRulerConfig(configFile);
+        } catch (IOException e) {
+            System.out.println("Could not read configuration from " + configFilePath);
+            System.exit(1);
+        } catch (JSONException e) {
+            System.out.println("JSON formatting error in " + configFilePath);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Check every repository anywhere under the batch folder and print a summary line for each.
+     * No setup files are created as the repositories are being marked rather than worked on.
+     */
+    private void runBatch() {
+
+        if (configFilePath == null){
+            configFilePath = batchPath + File.separator + Command.DEFAULT_CONFIG_FILENAME;
+        }
+
+        readConfig();
+
+        if (explain) {
+            explain(null, -1);
+            return;
+        }
+
+        if (merge) {
+            mergeShards();
+            return;
+        }
+
+        File batchFolder = new File(batchPath);
+        if (!batchFolder.isDirectory()) {
+            System.out.println("Could not list the repositories in " + batchPath);
+            System.exit(1);
+        }
+
+        RepositoryGrader grader = new RepositoryGrader(config);
+        grader.setPlanner(new EvaluationPlanner(stats));
+        grader.setRuleThreads(ruleThreads);
+        grader.setSpeculative(speculate);
+        grader.setRepositoryTimeoutMillis(repositoryTimeoutMillis);
+        BatchRunner batchRunner = new BatchRunner(grader);
+        batchRunner.setProfileReport(profileReport);
+        batchRunner.setDiscoveryThreads(discoveryThreads);
+        batchRunner.setOpenThreads(openThreads);
+        batchRunner.setIndexThreads(indexThreads);
+        batchRunner.setGradeThreads(gradeThreads);
+        batchRunner.setMaxPackOpens(maxPackOpens);
+        batchRunner.setHugeRepositoryBytes(hugeRepositoryMegabytes * 1024 * 1024);
+        batchRunner.setMaxHugeRepositories(maxHugeRepositories);
+        batchRunner.setMaxRetainedTraces(maxRetainedTraces);
+        batchRunner.setMemoryGovernor(new MemoryGovernor(memoryBudgetMegabytes * 1024 * 1024, repositoryMemoryMegabytes * 1024 * 1024));
+
+        if (virtualThreads && !VirtualThreads.isAvailable()) {
+            System.out.println(ANSI_CYAN + "Virtual threads need Java 21 or later, so platform threads will be used" + ANSI_RESET);
+        }
+        batchRunner.setVirtualThreads(virtualThreads);
+
+        WorkQueue workQueue = openWorkQueue();
+        BatchJournal journal = openJournal(workQueue);
+        batchRunner.setJournal(journal);
+        batchRunner.setWorkQueue(workQueue);
+
+        openResultSinks();
+        console = new ConsoleRenderer(System.out);
+        // each repository's line is formatted straight into the block that is printed when its turn comes
+        batchRunner.run(batchFolder, new BatchRunner.Listener<StringBuilder>() {
+            @Override
+            public StringBuilder repositoryGraded(RepositoryResult result) {
+                writeResults(sink -> sink.repositoryGraded(result));
+                packCache.sample();
+                return appendSummaryOutput(console.newBlock(), result).append(System.lineSeparator());
+            }
+
+            @Override
+            public StringBuilder repositoryFailed(File folder, Throwable cause) {
+                String reason = cause instanceof IOException ? "not a valid git repository" : "could not be graded: " + cause;
+                writeResults(sink -> sink.repositoryFailed(folder, reason));
+                return console.newBlock().append(displayName(folder)).append(": ").append(reason).append(System.lineSeparator());
+            }
+
+            @Override
+            public void inOrder(StringBuilder block) {
+                console.print(block);
+            }
+        });
+        console.close();
+        console = null;
+        closeResultSinks();
+        closeJournal(journal);
+        if (workQueue != null) {
+            workQueue.close();
+        }
+
+        if (verbose && batchRunner.getDroppedTraces() > 0) {
+            System.out.println(ANSI_CYAN + batchRunner.getDroppedTraces() + " stack traces were not kept, see --max-traces" + ANSI_RESET);
+        }
+
+        reportProfile();
+        writeStats();
+    }
+
+    /**
+     * Size JGit's pack cache before any repository is opened, exiting if the sizes aren't valid
+     */
+    private void configurePackCache() {
+
+        int readers = openThreads + indexThreads + gradeThreads * Math.max(1, ruleThreads);
+        WindowCacheConfig cacheConfig = batchPath != null
+                ? PackCache.batchDefaults(Runtime.getRuntime().maxMemory(), readers)
+                : new WindowCacheConfig();
+
+        Integer windowSize = packWindowKilobytes != null ? packWindowKilobytes * WindowCacheConfig.KB : null;
+        if (mmapPacks) {
+            PackCache.mapPacks(cacheConfig, windowSize, mappedWindows);
+        } else if (windowSize != null) {
+            cacheConfig.setPackedGitWindowSize(windowSize);
+        }
+        if (packCacheMegabytes != null) {
+            cacheConfig.setPackedGitLimit(packCacheMegabytes * WindowCacheConfig.MB);
+        }
+        if (deltaBaseCacheMegabytes != null) {
+            cacheConfig.setDeltaBaseCacheLimit(deltaBaseCacheMegabytes * WindowCacheConfig.MB);
+        }
+        if (packOpenFiles != null) {
+            cacheConfig.setPackedGitOpenFiles(packOpenFiles);
+        }
+
+        try {
+            cacheConfig.install();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Could not size the pack cache: " + e.getMessage());
+            System.exit(1);
+        }
+
+        packCache = new PackCache(cacheConfig);
+        if (profileReport != null) {
+            profileReport.setPackCache(packCache);
+        }
+    }
+
+    /**
+     * Join the queue shared with other machines if there is one, exiting if it can't be
+     * @return the queue or null if there isn't one
+     */
+    private WorkQueue openWorkQueue() {
+
+        if (queuePath == null) {
+            return null;
+        }
+
+        try {
+            return new WorkQueue(new File(batchPath), new File(queuePath), nodeName, leaseSeconds * 1000);
+        } catch (IOException e) {
+            System.out.println("Could not use the queue folder " + queuePath);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Open the journal if there is one, exiting if it can't be. When sharing a queue the journal is this
+     * machine's shard, and is forced to the disk after every repository so that a repository is never
+     * marked done before its results are safe.
+     * @param workQueue the queue shared with other machines, or null
+     * @return the journal or null if there isn't one
+     */
+    private BatchJournal openJournal(WorkQueue workQueue) {
+
+        File journalFile = workQueue != null ? workQueue.getShard() : journalPath != null ? new File(journalPath) : null;
+        if (journalFile == null) {
+            return null;
+        }
+
+        try {
+            BatchJournal journal = BatchJournal.open(journalFile, new File(batchPath), BatchJournal.fingerprint(new File(configFilePath)),
+                    workQueue != null ? 1 : journalSyncEvery);
+            if (journal.getGradedCount() > 0) {
+                System.out.println(ANSI_CYAN + "Resuming from " + journalFile + ", which has " + journal.getGradedCount() + " repositories already graded" + ANSI_RESET);
+            }
+            return journal;
+        } catch (IOException e) {
+            System.out.println("Could not open the journal " + journalFile);
+            System.exit(1);
+            return null;
+        }
+    }
+
+    /**
+     * Print and write out the results that all the machines sharing the queue have written to it
+     */
+    private void mergeShards() {
+
+        if (queuePath == null) {
+            System.out.println("--merge needs the --queue-dir the results were written to");
+            System.exit(1);
+        }
+
+        List<Rule> rules = new ArrayList<>();
+        config.getRules().forEach(rules::add);
+
+        List<RepositoryResult> results = null;
+        try {
+            results = WorkQueue.merge(new File(batchPath), new File(queuePath), BatchJournal.fingerprint(new File(configFilePath)), rules);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+        openResultSinks();
+        console = new ConsoleRenderer(System.out);
+        for (RepositoryResult result : results) {
+            console.print(appendSummaryOutput(console.newBlock(), result).append(NEW_LINE));
+            writeResults(sink -> sink.repositoryGraded(result));
+        }
+        console.close();
+        console = null;
+        closeResultSinks();
+    }
+
+    private void closeJournal(BatchJournal journal) {
+
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Could not write the journal: " + e.getMessage());
+        }
+        if (journal.getFailure() != null) {
+            System.out.println("Could not write the journal, so later repositories will be graded again if the run is resumed: " + journal.getFailure().getMessage());
+        }
+    }
+
+    /**
+     * Open the files that results are written to as well as being printed, exiting if one can't be created
+     */
+    private void openResultSinks() {
+
+        String path = resultsNdjsonPath;
+        try {
+            if (resultsNdjsonPath != null) {
+                resultSinks.add(new NdjsonResultSink(new File(resultsNdjsonPath)));
+            }
+            path = resultsCsvPath;
+            if (resultsCsvPath != null) {
+                resultSinks.add(new CsvResultSink(new File(resultsCsvPath), config.getRules()));
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write the results to " + path);
+            System.exit(1);
+        }
+    }
+
+    private interface SinkWrite {
+        void writeTo(ResultSink sink) throws IOException;
+    }
+
+    /**
+     * Write to each of the result files, giving up on any that can't be written to
+     */
+    private void writeResults(SinkWrite write) {
+
+        for (int i = resultSinks.size() - 1; i >= 0; i--) {
+            try {
+                write.writeTo(resultSinks.get(i));
+            } catch (IOException e) {
+                console.println("Could not write the results: " + e.getMessage());
+                closeQuietly(resultSinks.remove(i));
+            }
+        }
+    }
+
+    private void closeResultSinks() {
+        for (ResultSink sink : resultSinks) {
+            closeQuietly(sink);
+        }
+        resultSinks.clear();
+    }
+
+    private static void closeQuietly(ResultSink sink) {
+        try {
+            sink.close();
+        } catch (IOException ignored) {
+            // everything written so far has been flushed
+        }
+    }
+
+    private StringBuilder appendSummaryOutput(StringBuilder out, RepositoryResult repositoryResult) {
+        String name = batchPath == null ? repositoryResult.getRepositoryName() : displayName(new File(repositoryResult.getRepositoryPath()));
+        return out.append(name)
+                .append(": ").append(formatter.format(repositoryResult.getTotalScore()))
+                .append(" out of ").append(formatter.format(config.getTotalAvailableScore()));
+    }
+
+    /**
+     * Name a repository in the output. In a batch this is its path from the batch folder, as repositories
+     * in different sub-folders can have the same name.
+     */
+    private String displayName(File folder) {
+        if (batchPath == null) {
+            return folder.getName();
+        }
+        return BatchJournal.relativePath(new File(batchPath).toPath().toAbsolutePath().normalize(), folder);
+    }
+
+    /**
+     * Print the profile and write it to JSON if that was requested
+     */
+    private void reportProfile() {
+
+        if (profileReport == null) {
+            return;
+        }
+
+        if (profile) {
+            profileReport.print(System.out);
+        }
+
+        if (profileJsonPath != null) {
+            try {
+                profileReport.writeJson(new File(profileJsonPath));
+            } catch (IOException e) {
+                System.out.println("Could not write the profile to " + profileJsonPath);
+            }
+        }
+    }
+
+    /**
+     * Print how the rules would be checked
+     * @param size the estimated size of the repository, or null if there isn't one repository
+     * @param commits the number of commits in the repository, or -1 if not known
+     */
+    private void explain(RepositorySize size, long commits) {
+        new PlanExplainer(new EvaluationPlanner(stats)).print(config, size, commits, System.out);
+    }
+
+    /**
+     * Count the commits in the repository being checked, to estimate the cost of the rules that walk them
+     * @return the number of commits, or -1 if they couldn't be counted
+     */
+    private long countCommits() {
+        GitInteractor counter = null;
+        try {
+            counter = new GitInteractor(repositoryPath);
+            return counter.countCommits();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (counter != null) {
+                counter.close();
+            }
+        }
+    }
+
+    /**
+     * Read the rule costs from earlier runs, carrying on without them if they can't be read
+     */
+    private void readStats() {
+
+        if (statsFilePath == null) {
+            return;
+        }
+
+        try {
+            stats = RuleCostStats.load(new File(statsFilePath));
+        } catch (IOException | JSONException e) {
+            System.out.println("Could not read the stats from " + statsFilePath);
+            stats = new RuleCostStats();
+        }
+    }
+
+    /**
+     * Add the cost of the rules checked in this run to the stats file, if there is one
+     */
+    private void writeStats() {
+
+        if (stats == null) {
+            return;
+        }
+
+        stats.record(profileReport.getProfiles());
+        try {
+            stats.save(new File(statsFilePath));
+        } catch (IOException e) {
+            System.out.println("Could not write the stats to " + statsFilePath);
+        }
+    }
+
     private void runFileSetup() throws IOException {
 
         boolean setupRequiredAndSuccessful = false;
@@ -191,16 +701,16 @@ public class Command implements Runnable {
         }
     }
 
-    private String createOutputFromRuleAndResult(RuleResult result, Rule rule, boolean skipRemainingRules) {
+    private void appendRuleOutput(StringBuilder resultString, RuleResult result, Rule rule, boolean skipRemainingRules) {
 
         if (rule.getRuleName().equals(Rule.TEXT_RULE_NAME)){
-            return rule.getTitle();
+            resultString.append(rule.getTitle());
+            return;
         }
 
-        StringBuilder resultString = new StringBuilder();
-
         if (skipRemainingRules){
-            return SKIP + " " + rule.getTitle();
+            resultString.append(SKIP).append(" ").append(rule.getTitle());
+            return;
         }
 
         resultString.append(result.hasPassed() ? CORRECT_TICK : WRONG_CROSS);
@@ -218,6 +728,10 @@ public class Command implements Runnable {
         if (rule.hasPostText())
             resultString.append(rule.getPostText());
 
+        if (result.isTimedOut()) {
+            resultString.append(ANSI_YELLOW).append(" (timed out)").append(ANSI_RESET);
+        }
+
         if (rule.hasFailureMessage() && !result.hasPassed() && showAdvice){
             resultString.append(": ").append(rule.getFailureMessage());
         }
@@ -238,8 +752,6 @@ public class Command implements Runnable {
                     .append(formatter.format(rule.getScoreIfCorrect()))
                     .append(ANSI_RESET);
         }
-
-        return resultString.toString();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,84 @@
+package gitruler;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The id and message of every commit reachable from any ref, in the order a walk of all refs visits them.
+ *
+ * Built with a single walk so that rules which search commit messages don't each walk the whole history.
+ * Searching the index finds the same commit a walk would, because the order is the same.
+ */
+class CommitIndex {
+
+    /** Rough per-commit overhead of an id, two strings and the array slots, used to estimate the size */
+    private static final int BYTES_PER_COMMIT = 120;
+
+    private final ObjectId[] ids;
+    private final String[] messages;
+    private final String[] lowerCaseMessages;
+
+    CommitIndex(ObjectId[] ids, String[] messages) {
+        this.ids = ids;
+        this.messages = messages;
+        this.lowerCaseMessages = new String[messages.length];
+        for (int i = 0; i < messages.length; i++) {
+            lowerCaseMessages[i] = messages[i].toLowerCase();
+        }
+    }
+
+    /**
+     * Find the first commit whose message contains some text
+     * @param contents the text to look for
+     * @param caseInsensitive whether to ignore case
+     * @return the id of the commit or null if none match
+     */
+    ObjectId findFirstWithMessage(String contents, boolean caseInsensitive) {
+
+        String[] searched = caseInsensitive ? lowerCaseMessages : messages;
+        String text = caseInsensitive ? contents.toLowerCase() : contents;
+
+        for (int i = 0; i < searched.length; i++) {
+            if (searched[i].contains(text)) {
+                return ids[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the full messages of the commits in walk order
+     * @return the messages
+     */
+    List<String> getMessages() {
+        return Arrays.asList(messages);
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Estimate how much heap the index is holding on to
+     * @return the approximate size in bytes
+     */
+    long estimatedBytes() {
+        long bytes = 0;
+        for (String message : messages) {
+            bytes += estimateBytes(message);
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimate how much heap one commit in the index takes
+     * @param message the commit's message
+     * @return the approximate size in bytes
+     */
+    static long estimateBytes(String message) {
+        // the message is held twice, once lower case, at two bytes a character
+        return BYTES_PER_COMMIT + 4L * message.length();
+    }
+}
@@ -0,0 +1,130 @@
+package gitruler;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Prints output on a thread of its own, so that the thread handing out results never waits on the console.
+ *
+ * Output is written in blocks, e.g. everything printed for one repository, and a block is never split up by
+ * another so each repository's output stays together. Blocks are formatted into builders that are handed
+ * back to be reused once written, and go out through one large buffer that is only flushed when there is
+ * nothing more waiting to be written.
+ */
+class ConsoleRenderer implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /** How many blocks can be waiting before the threads handing them out wait for the console */
+    private static final int MAX_WAITING_BLOCKS = 1024;
+
+    /** How many builders are kept for reuse */
+    private static final int MAX_SPARE_BLOCKS = 64;
+
+    /** Marks the end of the output */
+    private static final StringBuilder END = new StringBuilder();
+
+    private final Writer out;
+    private final BlockingQueue<StringBuilder> waiting = new ArrayBlockingQueue<>(MAX_WAITING_BLOCKS);
+    private final BlockingQueue<StringBuilder> spare = new ArrayBlockingQueue<>(MAX_SPARE_BLOCKS);
+    private final Thread writer;
+    private char[] chars = new char[1024];
+    private IOException failure;
+
+    /**
+     * Start writing to a stream. It isn't closed when the renderer is.
+     * @param stream where to write, e.g. System.out
+     */
+    ConsoleRenderer(OutputStream stream) {
+
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, Charset.defaultCharset()), BUFFER_SIZE);
+
+        writer = new Thread(this::writeBlocks, "gitruler-console");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Get an empty builder to format a block of output into
+     * @return the builder, which should be passed to print when it is finished
+     */
+    StringBuilder newBlock() {
+
+        StringBuilder block = spare.poll();
+        if (block == null) {
+            return new StringBuilder(256);
+        }
+        block.setLength(0);
+        return block;
+    }
+
+    /**
+     * Print a block after those already printed. It shouldn't be used once it has been passed here.
+     * @param block the block, with a line separator at the end of each line
+     */
+    void print(StringBuilder block) {
+        try {
+            waiting.put(block);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Print a line on its own
+     * @param line the line, without a line separator
+     */
+    void println(String line) {
+        print(newBlock().append(line).append(System.lineSeparator()));
+    }
+
+    private void writeBlocks() {
+        try {
+            StringBuilder block;
+            while ((block = waiting.take()) != END) {
+                write(block, waiting.isEmpty());
+                spare.offer(block);
+            }
+            write(END, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(StringBuilder block, boolean flush) {
+
+        if (failure != null) {
+            return;
+        }
+
+        try {
+            if (chars.length < block.length()) {
+                chars = new char[Math.max(block.length(), chars.length * 2)];
+            }
+            block.getChars(0, block.length(), chars, 0);
+            out.write(chars, 0, block.length());
+            if (flush) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the console has gone, e.g. a closed pipe, so the rest of the output is thrown away
+            failure = e;
+        }
+    }
+
+    /**
+     * Wait for everything printed so far to be written
+     */
+    @Override
+    public void close() {
+
+        print(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package gitruler;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectStream;
+
+import java.io.IOException;
+
+/**
+ * An ObjectReader that passes everything through to a real reader while counting
+ * how many objects were opened and how many of their inflated bytes were read.
+ * Opening an object only to look at its type or size doesn't count any bytes.
+ */
+class CountingObjectReader extends ObjectReader.Filter {
+
+    private final ObjectReader delegate;
+    private long objectsOpened;
+    private long bytesInflated;
+
+    /**
+     * Wrap a reader
+     * @param delegate the reader that does the actual work
+     */
+    CountingObjectReader(ObjectReader delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    protected ObjectReader delegate() {
+        return delegate;
+    }
+
+    @Override
+    public ObjectLoader open(AnyObjectId objectId) throws MissingObjectException, IOException {
+        return count(delegate.open(objectId));
+    }
+
+    @Override
+    public ObjectLoader open(AnyObjectId objectId, int typeHint) throws MissingObjectException, IncorrectObjectTypeException, IOException {
+        return count(delegate.open(objectId, typeHint));
+    }
+
+    private ObjectLoader count(ObjectLoader loader) {
+        objectsOpened++;
+        return new CountingLoader(loader);
+    }
+
+    long getObjectsOpened() {
+        return objectsOpened;
+    }
+
+    long getBytesInflated() {
+        return bytesInflated;
+    }
+
+    /**
+     * Passes everything through to a loader, counting the whole object the first time its bytes are
+     * fetched, or as much of it as is read when it is streamed
+     */
+    private class CountingLoader extends ObjectLoader {
+
+        private final ObjectLoader loader;
+        private boolean cachedBytesCounted;
+
+        CountingLoader(ObjectLoader loader) {
+            this.loader = loader;
+        }
+
+        @Override
+        public int getType() {
+            return loader.getType();
+        }
+
+        @Override
+        public long getSize() {
+            return loader.getSize();
+        }
+
+        @Override
+        public boolean isLarge() {
+            return loader.isLarge();
+        }
+
+        @Override
+        public byte[] getCachedBytes() throws LargeObjectException {
+            return countCached(loader.getCachedBytes());
+        }
+
+        @Override
+        public byte[] getCachedBytes(int sizeLimit) throws LargeObjectException, MissingObjectException, IOException {
+            return countCached(loader.getCachedBytes(sizeLimit));
+        }
+
+        private byte[] countCached(byte[] bytes) {
+            // the loader hands back the same bytes each time, so they are only read once
+            if (!cachedBytesCounted) {
+                cachedBytesCounted = true;
+                bytesInflated += bytes.length;
+            }
+            return bytes;
+        }
+
+        @Override
+        public ObjectStream openStream() throws MissingObjectException, IOException {
+
+            ObjectStream stream = loader.openStream();
+            return new ObjectStream.Filter(stream.getType(), stream.getSize(), stream) {
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytesInflated++;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        bytesInflated += read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    // skipped bytes are still inflated
+                    long skipped = super.skip(n);
+                    bytesInflated += skipped;
+                    return skipped;
+                }
+            };
+        }
+    }
+}
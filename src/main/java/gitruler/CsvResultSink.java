@@ -0,0 +1,103 @@
+package gitruler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes a gradebook as CSV: a row for each repository with its name, the score for each rule that has one,
+ * and the total. A repository that couldn't be graded has its name and reason in the row and no scores.
+ * Each row is flushed once it is written.
+ */
+class CsvResultSink implements ResultSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String LINE_END = "\r\n";
+
+    private final Writer writer;
+    private final DecimalFormat formatter = new DecimalFormat("0.##", DecimalFormatSymbols.getInstance(Locale.ROOT));
+    private final List<Rule> scoredRules = new ArrayList<>();
+
+    /**
+     * Create the file, replacing anything already there, and write the header
+     * @param file the file to write to
+     * @param rules the rules being checked, in config order
+     * @throws IOException if it couldn't be created
+     */
+    CsvResultSink(File file, Iterable<Rule> rules) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), rules);
+    }
+
+    CsvResultSink(Writer writer, Iterable<Rule> rules) throws IOException {
+
+        this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+
+        StringBuilder header = new StringBuilder("repository");
+        for (Rule rule : rules) {
+            if (rule.getScoreIfCorrect() > 0) {
+                scoredRules.add(rule);
+                header.append(',').append(quote(rule.getTitle()));
+            }
+        }
+        header.append(",total,error");
+        writeRow(header);
+    }
+
+    @Override
+    public void repositoryGraded(RepositoryResult result) throws IOException {
+
+        StringBuilder row = new StringBuilder(quote(result.getRepositoryName()));
+
+        // the result has every rule in config order, so the scored ones come in the same order as the header
+        int column = 0;
+        for (int i = 0; i < result.getRules().size() && column < scoredRules.size(); i++) {
+            if (result.getRules().get(i) == scoredRules.get(column)) {
+                RuleResult ruleResult = result.getResults().get(i);
+                boolean passed = ruleResult != null && ruleResult.hasPassed();
+                row.append(',').append(formatter.format(passed ? scoredRules.get(column).getScoreIfCorrect() : 0d));
+                column++;
+            }
+        }
+
+        row.append(',').append(formatter.format(result.getTotalScore())).append(',');
+        writeRow(row);
+    }
+
+    @Override
+    public void repositoryFailed(File folder, String reason) throws IOException {
+
+        StringBuilder row = new StringBuilder(quote(folder.getName()));
+        for (int i = 0; i < scoredRules.size(); i++) {
+            row.append(',');
+        }
+        row.append(",,").append(quote(reason));
+        writeRow(row);
+    }
+
+    private void writeRow(CharSequence row) throws IOException {
+        writer.append(row).append(LINE_END);
+        writer.flush();
+    }
+
+    /**
+     * Quote a value if it has a comma, quote or line break in it
+     * @param value the value
+     * @return the value as a CSV field
+     */
+    static String quote(String value) {
+
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,167 @@
+package gitruler;
+
+import java.util.*;
+
+/**
+ * Decides the order in which a repository's rules are checked and whether to index its commit messages.
+ *
+ * The rules are split into stretches that each end with a stop-on-fail rule. The rules within a stretch don't
+ * depend on each other, so they can start in any order: the stop-on-fail rule first, so that whether to go on
+ * is known as early as possible, and then the rest cheapest first, so that results are ready to report sooner.
+ * Ignored rules keep their config order as they take turns with the working folder. The cost of each rule is
+ * the average from earlier runs if there are stats, and a rough guess from what the rule reads if not.
+ * The results are always reported in config order, whatever order the rules were checked in.
+ */
+class EvaluationPlanner {
+
+    /** Below this estimated size walking the history again costs less than indexing it */
+    static final long MIN_INDEXED_REPOSITORY_BYTES = 256 * 1024;
+
+    private static final long REFS_NANOS = 50_000;
+    private static final long HEAD_TREE_NANOS = 500_000;
+    private static final long WORKING_TREE_NANOS = 1_000_000;
+    private static final long BRANCH_TREE_NANOS = 1_000_000;
+    private static final long HISTORY_NANOS = 5_000_000;
+    private static final long NANOS_PER_COMMIT = 20_000;
+
+    private final RuleCostStats stats;
+
+    /**
+     * @param stats the costs measured in earlier runs, or null to guess every cost
+     */
+    EvaluationPlanner(RuleCostStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Estimate how long a rule takes to check
+     * @param rule the rule
+     * @return the average from earlier runs if it has been measured, otherwise a guess
+     */
+    long estimateNanos(Rule rule) {
+
+        if (stats != null) {
+            long measured = stats.getMeanWallNanos(rule.getRuleName());
+            if (measured >= 0) {
+                return measured;
+            }
+        }
+
+        return guessNanos(rule.getRuleName());
+    }
+
+    /**
+     * Estimate how long a rule takes to check against a repository with a known number of commits. Rules that
+     * walk the history are estimated from their time per commit visited, the rest as without the repository.
+     * @param rule the rule
+     * @param commits the number of commits in the repository, or -1 if not known
+     * @return the estimate
+     */
+    long estimateNanos(Rule rule, long commits) {
+
+        Set<RuleData> needed = rule.getDataNeeded();
+        if (commits < 0 || !(needed.contains(RuleData.FULL_HISTORY) || needed.contains(RuleData.PATH_HISTORY))) {
+            return estimateNanos(rule);
+        }
+
+        long perCommit = stats == null ? -1 : stats.getWallNanosPerCommit(rule.getRuleName());
+        if (perCommit >= 0) {
+            return perCommit * commits;
+        }
+
+        // measured, but without visiting commits itself, such as when a commit index answered it
+        return isMeasured(rule) ? estimateNanos(rule) : NANOS_PER_COMMIT * commits;
+    }
+
+    /**
+     * @param rule the rule
+     * @return whether the estimate comes from earlier runs
+     */
+    boolean isMeasured(Rule rule) {
+        return stats != null && stats.getCount(rule.getRuleName()) > 0;
+    }
+
+    private static long guessNanos(String ruleName) {
+
+        switch (ruleName) {
+            case "head-exists":
+            case "branch-exists":
+            case "tag-exists":
+            case Rule.TEXT_RULE_NAME:
+                return REFS_NANOS;
+            case "file-tracked-in-head":
+            case "file-untracked-in-head":
+            case "file-has-hash-in-head":
+            case "file-contains-in-head":
+                return HEAD_TREE_NANOS;
+            case "ignored":
+                return WORKING_TREE_NANOS;
+            case "file-tracked-in-branch":
+            case "file-contains-in-branch":
+                return BRANCH_TREE_NANOS;
+            default:
+                return HISTORY_NANOS;
+        }
+    }
+
+    /**
+     * Work out the order to check the rules in
+     * @param rules the rules in config order
+     * @return the position in config order of each rule, in the order they should start
+     */
+    List<Integer> evaluationOrder(List<Rule> rules) {
+
+        List<Integer> order = new ArrayList<>();
+        int stretchStart = 0;
+
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).stopOnFail() || i == rules.size() - 1) {
+                order.addAll(orderStretch(rules, stretchStart, i + 1));
+                stretchStart = i + 1;
+            }
+        }
+
+        return order;
+    }
+
+    private List<Integer> orderStretch(List<Rule> rules, int from, int to) {
+
+        List<Integer> stretch = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            stretch.add(i);
+        }
+
+        // stable, so rules of the same cost, including every ignored rule, keep their config order
+        stretch.sort(Comparator.comparing((Integer i) -> !startsFirst(rules.get(i)))
+                .thenComparingLong(i -> estimateNanos(rules.get(i))));
+        return stretch;
+    }
+
+    private static boolean startsFirst(Rule rule) {
+        return rule.stopOnFail() && !"ignored".equals(rule.getRuleName());
+    }
+
+    /**
+     * Decide whether indexing the commit messages of a repository is worth it. A rule searching the messages
+     * directly stops at the first match, while the index reads every commit, so it only pays off when several
+     * rules search the same history and there is enough of it.
+     * @param rules the rules
+     * @param size the estimated size of the repository, or null if not known
+     * @return true to build the index
+     */
+    boolean shouldBuildCommitIndex(Iterable<Rule> rules, RepositorySize size) {
+
+        int searches = 0;
+        for (Rule rule : rules) {
+            if (rule.searchesAllCommitMessages()) {
+                searches++;
+            }
+        }
+
+        if (searches < 2) {
+            return false;
+        }
+
+        return size == null || size.getEstimatedCost() >= MIN_INDEXED_REPOSITORY_BYTES;
+    }
+}
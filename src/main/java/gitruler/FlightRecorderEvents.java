@@ -0,0 +1,145 @@
+package gitruler;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+
+import java.io.File;
+
+/**
+ * Starts and commits the GitRuler Flight Recorder events.
+ *
+ * Each begin method returns null unless the Flight Recorder API is present and the event is
+ * enabled in a running recording, so call sites only pay for a null check when nothing is recording.
+ * Event fields are only filled in if the event is going to be committed.
+ */
+final class FlightRecorderEvents {
+
+    /** Whether this JVM has the Flight Recorder API (Java 8u262 or later) */
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static RuleEvaluatedEvent beginRuleEvaluated() {
+
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        RuleEvaluatedEvent event = new RuleEvaluatedEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    static void commitRuleEvaluated(RuleEvaluatedEvent event, String repository, Rule rule, RuleResult result,
+                                    long objectsOpened, long bytesInflated) {
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.rule = rule.getRuleName();
+            event.title = rule.getTitle();
+            event.repository = repository;
+            event.passed = result.hasPassed();
+            event.objectsOpened = objectsOpened;
+            event.bytesInflated = bytesInflated;
+            event.commit();
+        }
+    }
+
+    static RepositoryOpenedEvent beginRepositoryOpened() {
+
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        RepositoryOpenedEvent event = new RepositoryOpenedEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    static void commitRepositoryOpened(RepositoryOpenedEvent event, String repository, File gitDir) {
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.repository = repository;
+
+            File[] packs = new File(gitDir, "objects" + File.separator + "pack").listFiles((dir, name) -> name.endsWith(".pack"));
+            if (packs != null) {
+                event.packFiles = packs.length;
+                for (File pack : packs) {
+                    event.packBytes += pack.length();
+                }
+            }
+            event.commit();
+        }
+    }
+
+    static IndexBuiltEvent beginIndexBuilt() {
+
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        IndexBuiltEvent event = new IndexBuiltEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    static void commitIndexBuilt(IndexBuiltEvent event, String index, String repository, long entries, long estimatedBytes) {
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.index = index;
+            event.repository = repository;
+            event.entries = entries;
+            event.estimatedBytes = estimatedBytes;
+            event.commit();
+        }
+    }
+
+    static BlobScannedEvent beginBlobScanned() {
+
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        BlobScannedEvent event = new BlobScannedEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+        return event;
+    }
+
+    static void commitBlobScanned(BlobScannedEvent event, String repository, AnyObjectId objectId, long size) {
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.repository = repository;
+            event.objectId = objectId.name();
+            event.size = size;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package gitruler;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command line entry point for generating synthetic student repositories. Used by the generateRepositories gradle task.
+ */
+@CommandLine.Command(name = "generateRepositories", mixinStandardHelpOptions = true,
+        description = "Generates a cohort of synthetic student repositories and a gitrules.json to check them with.")
+public class GenerateRepositories implements Runnable {
+
+    @Option(names = { "-o", "--output" }, required = true, paramLabel = "Folder Path", description = "The folder to generate the repositories in")
+    private String outputPath;
+
+    @Option(names = { "-n", "--students" }, description = "The number of student repositories. Default 10")
+    private int students = 10;
+
+    @Option(names = { "--seed" }, description = "The seed for everything that is random. Default 1")
+    private long seed = 1;
+
+    @Option(names = { "--starter-commits" }, description = "The number of commits in the starter repository. Default 5")
+    private int starterCommits = 5;
+
+    @Option(names = { "--commits" }, description = "The number of commits each student makes. Default 20")
+    private int commits = 20;
+
+    @Option(names = { "--branches" }, description = "The number of branches each student creates. Default 2")
+    private int branches = 2;
+
+    @Option(names = { "--branch-commits" }, description = "The number of commits on each branch. Default 3")
+    private int branchCommits = 3;
+
+    @Option(names = { "--merge-probability" }, description = "The chance that a branch is merged back. Default 0.75")
+    private double mergeProbability = 0.75;
+
+    @Option(names = { "--tags" }, description = "The number of tags each student creates. Default 1")
+    private int tags = 1;
+
+    @Option(names = { "--large-blobs" }, description = "The number of large files (e.g. build outputs) each student commits. Default 0")
+    private int largeBlobs = 0;
+
+    @Option(names = { "--large-blob-size" }, description = "The size in bytes of each large file. Default 1048576")
+    private int largeBlobSize = 1024 * 1024;
+
+    @Option(names = { "--tree-width" }, description = "The number of files in the starter. Default 20")
+    private int treeWidth = 20;
+
+    @Option(names = { "--no-gitignore" }, description = "Don't create .gitignore files")
+    private boolean noGitignore;
+
+    @Option(names = { "--loose-objects" }, description = "Write loose objects rather than a pack per repository")
+    private boolean looseObjects;
+
+    public void run() {
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setSeed(seed);
+        generator.setStudents(students);
+        generator.setStarterCommits(starterCommits);
+        generator.setCommitsPerStudent(commits);
+        generator.setBranchesPerStudent(branches);
+        generator.setCommitsPerBranch(branchCommits);
+        generator.setMergeProbability(mergeProbability);
+        generator.setTagsPerStudent(tags);
+        generator.setLargeBlobsPerStudent(largeBlobs);
+        generator.setLargeBlobSize(largeBlobSize);
+        generator.setTreeWidth(treeWidth);
+        generator.setGitignore(!noGitignore);
+        generator.setPacked(!looseObjects);
+
+        long start = System.nanoTime();
+        try {
+            generator.generateCohort(new File(outputPath));
+        } catch (IOException e) {
+            System.out.println("Could not generate the repositories in " + outputPath);
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        System.out.println("Generated " + students + " repositories in " + outputPath + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    public static void main(String[] args) {
+        CommandLine.run(new GenerateRepositories(), System.out, args);
+    }
+}
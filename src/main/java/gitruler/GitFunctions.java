@@ -1,92 +1,288 @@
 package gitruler;
 
-import gitruler.exceptions.BranchNotFoundException;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.ListBranchCommand;
+import gitruler.exceptions.RuleTimeoutException;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.*;
-import org.eclipse.jgit.revplot.PlotCommit;
-import org.eclipse.jgit.revplot.PlotCommitList;
-import org.eclipse.jgit.revplot.PlotLane;
-import org.eclipse.jgit.revplot.PlotWalk;
 import org.eclipse.jgit.revwalk.*;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.*;
 
 class GitFunctions {
 
-    private Repository repo;
+    /** How much of a file is read between checks of the deadline */
+    private static final int READ_CHUNK_BYTES = 1024 * 1024;
+
+    private final GradingSession session;
+    private final Repository repo;
+    private final CountingObjectReader reader;
+    private long commitsVisited;
+    private long treeEntriesVisited;
+    private CommitIndex commitIndex;
+    private MemoryBudget memoryBudget;
+    private CancellationToken cancellation = CancellationToken.NONE;
 
     /**
      * Create the functions for a given repo.
      * @param repo the repo to act on.
      */
     GitFunctions(Repository repo) {
-        this.repo = repo;
+        this(new GradingSession(repo));
     }
 
     /**
-     * Get a branch ref from a branch name
-     * @param branchName The name to search for.
-     * @return A ref to the found branch
-     * @throws BranchNotFoundException The branch was not found.
+     * Create the functions for a repo that is already being read by a session.
+     * @param session the session whose reader, walk and caches are used.
      */
-    RevCommit getBranchCommit(String branchName) throws BranchNotFoundException {
+    GitFunctions(GradingSession session) {
+        this.session = session;
+        this.repo = session.getRepository();
+        this.reader = session.getReader();
+    }
 
-        Git git = new Git(repo);
-        Optional<Ref> branchOpt;
-        RevCommit branchCommit;
+    /**
+     * Get the reader that all object access goes through
+     * @return the reader, which also counts what it reads
+     */
+    CountingObjectReader getReader() {
+        return reader;
+    }
 
-        try {
-            branchOpt = git.branchList().call().stream().filter(b -> b.getName().contains(branchName)).findFirst();
-
-            if (branchOpt.isPresent()){
-                Ref branch = branchOpt.get();
-                RevWalk walk = new RevWalk(repo);
-                branchCommit = walk.parseCommit(branch.getObjectId());
-            }else{
-                throw new BranchNotFoundException("Branch " + branchName + " was not found");
+    /**
+     * Release the session and anything it holds open
+     */
+    void close() {
+        session.close();
+    }
+
+    /**
+     * Stop walks and file reads once a deadline passes
+     * @param cancellation the deadline, or {@link CancellationToken#NONE} for no limit
+     */
+    void setCancellationToken(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    private void visitCommit() {
+        commitsVisited++;
+        cancellation.checkpoint();
+    }
+
+    private void visitTreeEntry() {
+        treeEntriesVisited++;
+        cancellation.checkpoint();
+    }
+
+    long getCommitsVisited() {
+        return commitsVisited;
+    }
+
+    long getTreeEntriesVisited() {
+        return treeEntriesVisited;
+    }
+
+    /**
+     * Keep what is held in memory within a budget, giving up the commit index or refusing to read
+     * files that are too big when it runs out. The session's walk and caches are charged to it too.
+     * @param memoryBudget the budget, or null for no limit
+     */
+    void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        session.setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * Reserve memory from the budget, dropping the commit index to make room if needed
+     * @param bytes how much is about to be held
+     * @return false if there isn't room even without the index
+     */
+    private boolean reserve(long bytes) {
+
+        if (memoryBudget == null || memoryBudget.tryReserve(bytes)) {
+            return true;
+        }
+
+        if (getCommitIndex() != null) {
+            dropCommitIndex();
+            return memoryBudget.tryReserve(bytes);
+        }
+        return false;
+    }
+
+    private void release(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    /**
+     * Get the commit index, which is shared through the snapshot if there is one
+     * @return the index or null if there isn't one
+     */
+    private CommitIndex getCommitIndex() {
+        RepositorySnapshot snapshot = session.getSnapshot();
+        return snapshot != null ? snapshot.getCommitIndex() : commitIndex;
+    }
+
+    /**
+     * Stop using the commit index and give its memory back. Message searches walk the history again.
+     */
+    private void dropCommitIndex() {
+
+        RepositorySnapshot snapshot = session.getSnapshot();
+        CommitIndex dropped = snapshot != null ? snapshot.evictCommitIndex() : commitIndex;
+        commitIndex = null;
+
+        if (dropped != null) {
+            release(dropped.estimatedBytes());
+        }
+    }
+
+    /**
+     * Capture the refs, together with the commit index if one was built, so that other sessions
+     * on other threads can share them. This session uses the snapshot from now on too.
+     * @return the snapshot
+     * @throws IOException if the refs couldn't be read
+     */
+    RepositorySnapshot captureSnapshot() throws IOException {
+        RepositorySnapshot snapshot = RepositorySnapshot.capture(repo, commitIndex);
+        session.setSnapshot(snapshot);
+        commitIndex = null;
+        return snapshot;
+    }
+
+    MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Read the parts of the repository that almost every rule needs, so that the I/O is done up front.
+     * Listing the refs reads packed-refs, and reading the HEAD commit and its tree opens the pack indexes.
+     * @throws IOException Git exception
+     */
+    void prefetch() throws IOException {
+
+        repo.getRefDatabase().getRefs();
+
+        ObjectId head = session.resolve(Constants.HEAD);
+        if (head == null) {
+            return;
+        }
+
+        RevCommit commit = session.parseCommit(head);
+        reader.open(commit.getTree()).getSize();
+    }
+
+    /**
+     * Walk every ref once and keep each commit's message, so that searching messages doesn't walk the history again.
+     * The index isn't kept if it won't fit in the memory budget.
+     * @return the index, which is also used by this object's message searches from now on, or null if it didn't fit
+     * @throws IOException Git exception
+     */
+    CommitIndex buildCommitIndex() throws IOException {
+
+        IndexBuiltEvent event = FlightRecorderEvents.beginIndexBuilt();
+
+        List<ObjectId> ids = new ArrayList<>();
+        List<String> messages = new ArrayList<>();
+        long bytes = 0;
+
+        // a walk of its own so that bodies can be dropped as they are indexed
+        try (RevWalk walk = markAllRefs(session.newWalk())) {
+            for (RevCommit commit : walk) {
+                visitCommit();
+                String message = commit.getFullMessage();
+                long commitBytes = CommitIndex.estimateBytes(message);
+
+                if (!reserve(commitBytes)) {
+                    release(bytes);
+                    return null;
+                }
+
+                bytes += commitBytes;
+                ids.add(commit.copy());
+                messages.add(message);
+                commit.disposeBody();
             }
-        } catch (Exception e) {
-            throw new BranchNotFoundException("A branch called " + branchName + " with a valid commit was not found");
+        } catch (RuleTimeoutException e) {
+            release(bytes);
+            throw e;
         }
 
-        return branchCommit;
+        commitIndex = new CommitIndex(ids.toArray(new ObjectId[0]), messages.toArray(new String[0]));
+
+        if (event != null) {
+            FlightRecorderEvents.commitIndexBuilt(event, "commits", repo.getDirectory().getPath(),
+                    commitIndex.size(), bytes);
+        }
+        return commitIndex;
     }
 
     /**
-     * Get the tree objectId for the tree that includes the specific path in the last commit for a branch
+     * Find the commit at the tip of a branch
+     * @param branchName The name to search for.
+     * @return the commit, or empty if there is no such branch or it doesn't point at a commit
+     * @throws IOException Git exception
+     * @throws GitAPIException Git exception
+     */
+    Optional<RevCommit> findBranchCommit(String branchName) throws IOException, GitAPIException {
+
+        for (Ref branch : session.getBranches()) {
+            if (branch.getName().contains(branchName)) {
+                return findCommit(branch.getObjectId());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Find the id of the first entry at or under a path in a commit's tree
      * @param path the file path
      * @param commit the commit to start from
-     * @return The objectID for the tree
+     * @return The id of the entry, or empty if the path isn't in that commit
+     * @throws IOException Git exception
      */
-    ObjectId getTreeIdFromPath(String path, RevCommit commit) {
+    Optional<ObjectId> findPathId(String path, RevCommit commit) throws IOException {
+        return Optional.ofNullable(findPath(commit, path));
+    }
 
-        try {
-            TreeWalk treeWalk = new TreeWalk(repo);
+    /**
+     * Find the first entry at or under a path in a commit's tree, using the session's cache if it has been looked for before
+     * @param commit the commit, which doesn't have to be parsed
+     * @param path the file path
+     * @return the id of the entry or null if there is none
+     * @throws IOException Git exception
+     */
+    private ObjectId findPath(RevCommit commit, String path) throws IOException {
+
+        return session.findPath(commit, path, () -> {
 
             // ensure that the commit is fully parsed so we don't have null trees
-            RevWalk revWalk = new RevWalk(repo);
-            commit = revWalk.parseCommit(commit.getId());
+            RevCommit parsed = session.parseCommit(commit.getId());
 
-            treeWalk.addTree(commit.getTree());
-            treeWalk.setRecursive(true);
-            treeWalk.setFilter(PathFilter.create(path));
+            try (TreeWalk treeWalk = session.newTreeWalk()) {
+                treeWalk.addTree(parsed.getTree());
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(PathFilter.create(path));
 
-            while (treeWalk.next()) {
-                if (treeWalk.getPathString() != null){
-                    return treeWalk.getObjectId(0);
+                while (treeWalk.next()) {
+                    visitTreeEntry();
+                    if (treeWalk.getPathString() != null){
+                        return treeWalk.getObjectId(0);
+                    }
                 }
             }
-        } catch (IOException ignored) {}
-
-        return null;
+            return null;
+        });
     }
 
     /**
@@ -96,71 +292,182 @@ class GitFunctions {
      * @throws IOException If the file could not be found
      */
      String getFileContents(ObjectId treeId) throws IOException {
-        ObjectLoader loader = repo.open(treeId);
-        InputStream in = loader.openStream();
-        Scanner s = new Scanner(in).useDelimiter("\\A");
-        return s.hasNext() ? s.next() : "";
+        BlobScannedEvent event = FlightRecorderEvents.beginBlobScanned();
+
+        ObjectLoader loader = reader.open(treeId);
+
+        // the bytes read and the string made from them, at two bytes a character
+        long bytes = loader.getSize() * 3;
+        if (!reserve(bytes)) {
+            throw new IOException("The file is too big to read within the memory budget");
+        }
+
+        String contents;
+        try {
+            contents = readContents(loader);
+        } finally {
+            release(bytes);
+        }
+
+        if (event != null) {
+            FlightRecorderEvents.commitBlobScanned(event, repo.getDirectory().getPath(), treeId, loader.getSize());
+        }
+        return contents;
     }
 
     /**
-     * Get the number of commits in a repo
-     * @return
-     * @throws GitAPIException
+     * Read a file a chunk at a time, stopping if the deadline passes
+     * @param loader the file's loader
+     * @return the contents in the platform's charset
+     * @throws IOException if it couldn't be read or is too big for a string
      */
-    int getNumberOfCommits() throws GitAPIException {
-        Git git = new Git(repo);
-        Iterable<RevCommit> commits = git.log().call();
+    private String readContents(ObjectLoader loader) throws IOException {
+
+        long size = loader.getSize();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("The file is too big to read");
+        }
+
+        byte[] buffer = new byte[(int) size];
+        int read = 0;
+        try (InputStream in = loader.openStream()) {
+            while (read < buffer.length) {
+                int n = in.read(buffer, read, Math.min(READ_CHUNK_BYTES, buffer.length - read));
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+                cancellation.checkpoint();
+            }
+        }
+
+        return new String(buffer, 0, read, Charset.defaultCharset());
+    }
+
+    /**
+     * Get the number of commits reachable from HEAD
+     * @return the number of commits, or zero if there is no HEAD
+     * @throws IOException Git exception
+     */
+    int getNumberOfCommits() throws IOException {
         int count = 0;
-        for( RevCommit ignored : commits ) {
-            count++;
+        try (RevWalk walk = walkFromHead(null)) {
+            walk.setRetainBody(false);
+            for( RevCommit ignored : walk ) {
+                visitCommit();
+                count++;
+            }
         }
 
         return count;
     }
 
+    /**
+     * Create a walk over the history of HEAD, like git log. It is a walk of its own, which should be closed.
+     * @param path only include commits that changed this path, or null for all commits
+     * @return the walk, which will be empty if there is no HEAD
+     * @throws IOException Git exception
+     */
+    private RevWalk walkFromHead(String path) throws IOException {
+
+        RevWalk walk = session.newWalk();
+        ObjectId head = session.resolve(Constants.HEAD);
+        if (head != null) {
+            walk.markStart(walk.parseCommit(head));
+        }
+
+        if (path != null) {
+            walk.setTreeFilter(AndTreeFilter.create(new TreeFilter[] {
+                    new CancellationTreeFilter(), PathFilterGroup.createFromStrings(path), TreeFilter.ANY_DIFF }));
+        }
+        return walk;
+    }
+
+    /**
+     * Checks the deadline as a walk compares the trees of each commit. A walk filtered by path can go
+     * through the whole history without returning a commit, so checking as commits are visited isn't enough.
+     */
+    private class CancellationTreeFilter extends TreeFilter {
+
+        @Override
+        public boolean include(TreeWalk walker) {
+            cancellation.checkpoint();
+            return true;
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return false;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return this;
+        }
+    }
+
+    /**
+     * Start a walk from every ref in the repository, like git log --all
+     * @param walk the walk to start
+     * @return the walk
+     * @throws IOException Git exception
+     */
+    private RevWalk markAllRefs(RevWalk walk) throws IOException {
+
+        RefDatabase refDatabase = repo.getRefDatabase();
+        for (Ref ref : refDatabase.getRefs()) {
+
+            if (!ref.isPeeled()) {
+                ref = refDatabase.peel(ref);
+            }
+
+            ObjectId objectId = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+            if (objectId == null) {
+                continue;
+            }
+
+            try {
+                walk.markStart(walk.parseCommit(objectId));
+            } catch (MissingObjectException | IncorrectObjectTypeException ignored) {
+                // refs that don't point at commits (e.g. tagged blobs) have no history
+            }
+        }
+        return walk;
+    }
+
     /**
      * Get a commit that was made with a commit message containing certain text
      * @param contents The message must contain this content
      * @param caseInsensitive whether to ignore case when matching text
-     * @return The commit if found or null
+     * @return The first commit found with that text in its message, or empty if there isn't one
+     * @throws IOException Git exception
      */
-    RevCommit getCommitWithMessageContaining(String contents, boolean caseInsensitive) {
+    Optional<RevCommit> getCommitWithMessageContaining(String contents, boolean caseInsensitive) throws IOException {
 
-        Git git = new Git(repo);
-        Iterable<RevCommit> log = null;
-        try {
-            log = git.log().all().call();
+        CommitIndex index = getCommitIndex();
+        if (index != null) {
+            ObjectId id = index.findFirstWithMessage(contents, caseInsensitive);
+            return id == null ? Optional.empty() : Optional.of(session.parseCommit(id));
+        }
 
-            for (RevCommit commit: log) {
+        Iterable<RevCommit> log = markAllRefs(session.getWalk());
 
-                if (caseInsensitive) {
-                    if (commit.getFullMessage().toLowerCase().contains(contents.toLowerCase())){
+        for (RevCommit commit: log) {
 
-                        RevWalk revWalk = new RevWalk(repo);
-                        commit = revWalk.parseCommit(commit.getId());
-                        return commit;
-                    }
+            visitCommit();
+            if (caseInsensitive) {
+                if (commit.getFullMessage().toLowerCase().contains(contents.toLowerCase())){
+                    return Optional.of(commit);
                 }
-                else{
-                    if (commit.getFullMessage().contains(contents)){
-                        RevWalk revWalk = new RevWalk(repo);
-                        commit = revWalk.parseCommit(commit.getId());
-                        return commit;
-                    }
+            }
+            else{
+                if (commit.getFullMessage().contains(contents)){
+                    return Optional.of(commit);
                 }
             }
-        } catch (Exception ignored) {}
-
-        return null;
-    }
+        }
 
-    /**
-     * Check if an objectId is valid
-     * @param id the id
-     * @return true if it refers to an object
-     */
-    boolean isValidObjectId(ObjectId id) {
-        return id != ObjectId.zeroId() && id != null;
+        return Optional.empty();
     }
 
     /**
@@ -179,44 +486,27 @@ class GitFunctions {
      * @param commit the later commit
      * @return True if the file changed
      * @throws IOException the test failed
-     * @throws GitAPIException the test failed
      */
-    private boolean doesDiffWithParentContainCommit(String path, RevCommit commit) throws IOException, GitAPIException {
-
-        Git git = new Git(repo);
-        CanonicalTreeParser commitTree = getCommitTreeParser(commit.getTree().getId());
+    private boolean doesDiffWithParentContainCommit(String path, RevCommit commit) throws IOException {
 
         // Get the parent of this commit to compare it with
         RevCommit[] parents = commit.getParents();
-        RevCommit parent = parents[0];
-        RevWalk revWalk = new RevWalk(repo);
-        parent = revWalk.parseCommit( parent.getId() );
-        CanonicalTreeParser parentTree = getCommitTreeParser(parent.getTree().getId());
-
-        List<DiffEntry> changes = git.diff()
-                .setOldTree(parentTree)
-                .setNewTree(commitTree)
-                .setPathFilter(PathFilter.create(path))
-                .call();
-
-        return changes.size() > 0;
-    }
+        RevCommit parent = session.parseCommit( parents[0].getId() );
+        commit = session.parseCommit( commit.getId() );
 
-    /**
-     * Get the tree from a commit
-     * @param treeId the id of a tree to get parser for
-     * @return tree parser
-     * @throws IOException If it failed to get the tree
-     */
-    private CanonicalTreeParser getCommitTreeParser(ObjectId treeId) throws IOException {
-
-        Git git = new Git(repo);
+        // Only entries under the path that differ between the two trees are returned
+        try (TreeWalk treeWalk = session.newTreeWalk()) {
+            treeWalk.addTree(parent.getTree());
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
 
-        CanonicalTreeParser commitTree = new CanonicalTreeParser();
-        try( ObjectReader reader = git.getRepository().newObjectReader() ) {
-            commitTree.reset(reader, treeId);
+            boolean changed = treeWalk.next();
+            if (changed) {
+                visitTreeEntry();
+            }
+            return changed;
         }
-        return commitTree;
     }
 
     /**
@@ -240,44 +530,43 @@ class GitFunctions {
      */
     boolean pathExistsInCommit(RevCommit commit, String path, String id) throws IOException {
 
-        RevTree tree = commit.getTree();
-
+        ObjectId objectId = findPath(commit, path);
+        if (objectId == null) {
+            return false;
+        }
 
+        // If an id is passed in check that it matches, otherwise return true anyway
+        return (id == null || id.isEmpty() || Objects.equals(objectId.getName(), id));
+    }
 
-        TreeWalk treeWalk = new TreeWalk(repo);
-        treeWalk.addTree(tree);
-        treeWalk.setRecursive(true);
-        treeWalk.setFilter(PathFilter.create(path));
-        while (treeWalk.next()) {
-            if (treeWalk.getPathString() != null){
-                ObjectId objectId = treeWalk.getObjectId(0);
-                // If an id is passed in check that it matches, otherwise return true anyway
-                return (id == null || id.isEmpty() || Objects.equals(objectId.getName(), id));
-            }
-        }
-        return false;
+    /**
+     * Find the commit that a ref string names
+     * @param ref a ref name such as HEAD, a tag or a branch, or the id of the commit as a string
+     * @return the commit, or empty if the ref doesn't resolve to a commit
+     * @throws IOException git exception
+     */
+    Optional<RevCommit> findCommit(String ref) throws IOException {
+        return findCommit(session.resolve(ref));
     }
 
     /**
-     * Get the commit from a ref string
-     * @param ref the id of the commit as a string
-     * @return the commit object
+     * Parse the commit with an id
+     * @param id the id, which may be null
+     * @return the commit, or empty if there is no id or it names something other than a commit
      * @throws IOException git exception
      */
-    RevCommit getCommitFromRefString(String ref) throws IOException {
-        ObjectId commitId = repo.resolve(ref);
+    private Optional<RevCommit> findCommit(ObjectId id) throws IOException {
 
-        if (commitId == null){
-            throw new IOException("There was no object with that ref");
+        if (id == null) {
+            return Optional.empty();
         }
 
-        RevWalk revWalk = new RevWalk(repo);
-        return revWalk.parseCommit(commitId);
+        RevObject object = session.parsePeeled(id);
+        return object instanceof RevCommit ? Optional.of((RevCommit) object) : Optional.empty();
     }
 
     RevCommit parseCommit(RevCommit commit) throws IOException {
-        RevWalk revWalk = new RevWalk(repo);
-        return revWalk.parseCommit(commit);
+        return session.parseCommit(commit);
     }
 
     /**
@@ -296,7 +585,7 @@ class GitFunctions {
                 return doesDiffWithParentContainCommit(path, commit);
 
             }
-        }catch(IOException | GitAPIException e) {
+        }catch(IOException e) {
             return false;
         }
     }
@@ -305,30 +594,54 @@ class GitFunctions {
      * Get the contents of a file as it was at the point in time a commit occurred
      * @param commit The commit to check
      * @param path The file to get the contents of
-     * @return The file contents
+     * @return The file contents, or empty if the file wasn't in that commit
      * @throws IOException Git exceptions
-     * @throws NullPointerException Git exceptions
      */
-    String getContentsOfFileInCommit(RevCommit commit, String path) throws IOException, NullPointerException {
-        ObjectId treeIfOfFileInCommit = getTreeIdFromPath(path, commit);
-        return getFileContents(treeIfOfFileInCommit);
+    Optional<String> getContentsOfFileInCommit(RevCommit commit, String path) throws IOException {
+        ObjectId fileId = findPath(commit, path);
+        return fileId == null ? Optional.empty() : Optional.of(getFileContents(fileId));
     }
 
-    boolean anyCommitMessagesForFileContainsString(String path, String contents, boolean caseInsensitive) throws IOException, GitAPIException {
+    boolean anyCommitMessagesForFileContainsString(String path, String contents, boolean caseInsensitive) throws IOException {
 
-        Git git = new Git(repo);
-        Iterable<RevCommit> log = git.log().addPath(path).call();
-        return doesCommitListIncludeContentInAMessage(contents, caseInsensitive, log);
+        try (RevWalk walk = walkFromHead(path)) {
+            return doesMessageListIncludeContent(contents, caseInsensitive, messagesOf(walk));
+        }
     }
 
-    boolean anyCommitMessagesContainsString(String contents, boolean caseInsensitive) throws IOException, GitAPIException {
+    boolean anyCommitMessagesContainsString(String contents, boolean caseInsensitive) throws IOException {
+
+        CommitIndex index = getCommitIndex();
+        if (index != null) {
+            return doesMessageListIncludeContent(contents, caseInsensitive, index.getMessages());
+        }
+        return doesMessageListIncludeContent(contents, caseInsensitive, messagesOf(markAllRefs(session.getWalk())));
+    }
+
+    /**
+     * Get the messages of the commits in a walk as they are visited
+     * @param log the walk
+     * @return the messages, read lazily so that a search can stop early
+     */
+    private Iterable<String> messagesOf(Iterable<RevCommit> log) {
+        return () -> new Iterator<String>() {
+
+            private final Iterator<RevCommit> commits = log.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return commits.hasNext();
+            }
 
-        Git git = new Git(repo);
-        Iterable<RevCommit> log = git.log().all().call();
-        return doesCommitListIncludeContentInAMessage(contents, caseInsensitive, log);
+            @Override
+            public String next() {
+                visitCommit();
+                return commits.next().getFullMessage();
+            }
+        };
     }
 
-    boolean lastCommitMessageForFileContainsString(String path, String contents, boolean caseInsensitive) throws IOException, GitAPIException {
+    boolean lastCommitMessageForFileContainsString(String path, String contents, boolean caseInsensitive) throws IOException {
         RevCommit commit = getLatestCommitForPath(path);
 
         if (caseInsensitive) {
@@ -338,16 +651,17 @@ class GitFunctions {
         }
     }
 
-    private RevCommit getLatestCommitForPath(String path) throws GitAPIException {
-        Git git = new Git(repo);
-        Iterable<RevCommit> log = git.log().addPath(path).call();
+    private RevCommit getLatestCommitForPath(String path) throws IOException {
         RevCommit latestCommit = null;
 
-        double latestTimeCommit = 0;
-        for (RevCommit commit: log) {
-            if (commit.getCommitTime() > latestTimeCommit) {
-                latestTimeCommit = commit.getCommitTime();
-                latestCommit = commit;
+        try (RevWalk log = walkFromHead(path)) {
+            double latestTimeCommit = 0;
+            for (RevCommit commit: log) {
+                visitCommit();
+                if (commit.getCommitTime() > latestTimeCommit) {
+                    latestTimeCommit = commit.getCommitTime();
+                    latestCommit = commit;
+                }
             }
         }
 
@@ -361,28 +675,27 @@ class GitFunctions {
      * @throws GitAPIException Git exception.
      */
     boolean doesBranchExist(String branchName) throws GitAPIException {
-        Git git = new Git(repo);
-        Optional<Ref> branchOpt = git.branchList().call().stream().filter(b -> b.getName().contains(branchName)).findFirst();
+        Optional<Ref> branchOpt = session.getBranches().stream().filter(b -> b.getName().contains(branchName)).findFirst();
         return branchOpt.isPresent();
     }
 
     /**
-     * Unility method check a list of commits for a commit message
+     * Unility method check a list of commit messages for some text
      * @param contents the text to look into the commit message for
      * @param caseInsensitive whether to check case
-     * @param log the list of commits
+     * @param messages the commit messages
      * @return true if the messages contains text.
      */
-    private Boolean doesCommitListIncludeContentInAMessage(String contents, boolean caseInsensitive, Iterable<RevCommit> log) {
+    private Boolean doesMessageListIncludeContent(String contents, boolean caseInsensitive, Iterable<String> messages) {
 
-        for (RevCommit commit : log) {
+        for (String message : messages) {
             if (caseInsensitive) {
-                if (commit.getFullMessage().toLowerCase().contains(contents.toLowerCase())){
+                if (message.toLowerCase().contains(contents.toLowerCase())){
                     return true;
                 }
             }
             else{
-                if (commit.getFullMessage().contains(contents)){
+                if (message.contains(contents)){
                     return false;
                 }
             }
@@ -395,35 +708,40 @@ class GitFunctions {
      * @param branch The name of the branch
      * @param commitMessageContents The contents used to find the parent commit
      * @param ignoreMessageCase Whether to ignore the case when finding the commit
-     * @return True of the commit with that message as merged on committed into a commit on the given branch
+     * @return FOUND if the commit with that message was merged or committed into a commit on the given branch
      * @throws IOException Git exception
      * @throws GitAPIException Git exception
      */
-    boolean isChildOfCommitOnBranch(String branch, String commitMessageContents, boolean ignoreMessageCase) throws IOException, GitAPIException, BranchNotFoundException {
+    BranchSearchResult isChildOfCommitOnBranch(String branch, String commitMessageContents, boolean ignoreMessageCase) throws IOException, GitAPIException {
 
         // get the commit with that message
-        RevCommit commitWithMessage = getCommitWithMessageContaining(commitMessageContents, ignoreMessageCase);
+        Optional<RevCommit> commitWithMessage = getCommitWithMessageContaining(commitMessageContents, ignoreMessageCase);
 
-        if (commitWithMessage == null){
-            return false;
+        if (!commitWithMessage.isPresent()){
+            return BranchSearchResult.NO_SUCH_COMMIT;
         }
 
         // Get a walker for the branch
-        RevWalk revWalk = new RevWalk(repo);
-        revWalk.markStart( revWalk.parseCommit(getBranchCommit(branch).getId()));
+        Optional<RevCommit> branchCommit = findBranchCommit(branch);
+        if (!branchCommit.isPresent()) {
+            return BranchSearchResult.NO_SUCH_BRANCH;
+        }
+        RevWalk revWalk = session.getWalk();
+        revWalk.markStart(branchCommit.get());
 
         // Look at each commit in the branch
         for( RevCommit commit : revWalk ) {
 
+            visitCommit();
             // if the parent of this commit (in the branch) is our commit then we succeeded
             for (RevCommit parentCommit : commit.getParents()){
-                if (parentCommit.getId().equals(commitWithMessage.getId())){
-                    return true;
+                if (parentCommit.getId().equals(commitWithMessage.get().getId())){
+                    return BranchSearchResult.FOUND;
                 }
             }
         }
 
-        return false;
+        return BranchSearchResult.NOT_ON_BRANCH;
     }
 
     /**
@@ -431,29 +749,34 @@ class GitFunctions {
      * @param branch the branch name
      * @param commitMessage The text within the message
      * @param ignoreCase Whether to ignore the case when checking the commit message
-     * @return True of the commit with that message was under the branch ref
-     * @throws BranchNotFoundException Git exception
+     * @return FOUND if the commit with that message was under the branch ref
      * @throws IOException Git exception
+     * @throws GitAPIException Git exception
      */
-    boolean wasCommitWithMessageMadeOnBranch(String branch, String commitMessage, boolean ignoreCase) throws Exception {
+    BranchSearchResult wasCommitWithMessageMadeOnBranch(String branch, String commitMessage, boolean ignoreCase) throws IOException, GitAPIException {
 
-        RevCommit commitWithMessage = getCommitWithMessageContaining(commitMessage, ignoreCase);
+        Optional<RevCommit> commitWithMessage = getCommitWithMessageContaining(commitMessage, ignoreCase);
 
-        if (commitWithMessage == null){
-            throw new Exception("No commit with that message was found");
+        if (!commitWithMessage.isPresent()){
+            return BranchSearchResult.NO_SUCH_COMMIT;
         }
 
         // Get a walker for the branch
-        RevWalk revWalk = new RevWalk(repo);
-        revWalk.markStart( revWalk.parseCommit(getBranchCommit(branch).getId()));
+        Optional<RevCommit> branchCommit = findBranchCommit(branch);
+        if (!branchCommit.isPresent()) {
+            return BranchSearchResult.NO_SUCH_BRANCH;
+        }
+        RevWalk revWalk = session.getWalk();
+        revWalk.markStart(branchCommit.get());
 
         // Look at each commit in the branch
         for( RevCommit commit : revWalk ) {
-            if (commit.getId().equals(commitWithMessage.getId())){
-                return true;
+            visitCommit();
+            if (commit.getId().equals(commitWithMessage.get().getId())){
+                return BranchSearchResult.FOUND;
             }
         }
-        return false;
+        return BranchSearchResult.NOT_ON_BRANCH;
     }
 
     /**
@@ -471,10 +794,10 @@ class GitFunctions {
      * @param tag the name of the tag
      * @return True if the commit is correctly tagged.
      */
-    boolean isCommitTagged(RevCommit commit, String tag) throws IOException, GitAPIException {
+    boolean isCommitTagged(RevCommit commit, String tag) throws IOException {
 
-        RevCommit revCommit = getCommitFromRefString(tag);
-        return revCommit != null && revCommit.getId().equals(commit.getId());
+        Optional<RevCommit> revCommit = findCommit(tag);
+        return revCommit.isPresent() && revCommit.get().getId().equals(commit.getId());
     }
 
     /**
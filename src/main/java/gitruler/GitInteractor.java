@@ -1,31 +1,39 @@
 package gitruler;
 
-import gitruler.exceptions.BranchNotFoundException;
-import org.eclipse.jgit.api.Git;
+import gitruler.exceptions.RuleTimeoutException;
 import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.file.*;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
 
 class GitInteractor {
 
     private static final String THE_FILE_WAS_NOT_CHANGED_IN_THE_COMMIT = "The file was not changed in the commit";
     private static final String DUMMY_CONTENT = "DUMMY CONTENT";
     private static final String GIT_DIR_NAME = ".git";
+    private static final String NO_COMMITS_MESSAGE = "There are no commits yet";
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
     private Repository repo;
+    private GradingSession session;
     private GitFunctions gitFunctions;
     private String repositoryPath;
+    private ProfileReport profileReport;
+    private TraceBudget traceBudget;
+    private boolean ownsRepository = true;
+    private boolean budgetStarted;
+    private long repositoryDeadline;
 
     GitInteractor(String path) throws IOException {
 
@@ -34,19 +42,299 @@ class GitInteractor {
         // if the path doesn't already have .git on it, add it
         if (!path.endsWith(GIT_DIR_NAME)){
             repositoryPath = path;
-            path = path + File.separator + GIT_DIR_NAME;
+            File dotGit = new File(path, GIT_DIR_NAME);
+            if (dotGit.isFile()) {
+                // a submodule or worktree, whose .git file says where its git folder is
+                repositoryBuilder.setWorkTree(new File(path));
+            } else if (!dotGit.exists() && RepositoryFinder.isBareRepository(new File(path))) {
+                repositoryBuilder.setGitDir(new File(path));
+            } else {
+                repositoryBuilder.setGitDir(dotGit);
+            }
         }else{
-            repositoryPath = path.substring(0,path.indexOf(GIT_DIR_NAME));
+            // either the .git folder of a working tree or a bare repository named like one
+            boolean dotGit = new File(path).getName().equals(GIT_DIR_NAME);
+            repositoryPath = dotGit ? path.substring(0, path.length() - GIT_DIR_NAME.length()) : path;
+            repositoryBuilder.setGitDir(new File(path));
         }
 
-        repo = repositoryBuilder.setGitDir(new File(path))
+        RepositoryOpenedEvent event = FlightRecorderEvents.beginRepositoryOpened();
+
+        repo = repositoryBuilder
                 .setMustExist(true)
                 .build();
 
-        gitFunctions = new GitFunctions(repo);
+        if (event != null) {
+            FlightRecorderEvents.commitRepositoryOpened(event, repositoryPath, repo.getDirectory());
+        }
+
+        session = new GradingSession(repo);
+        gitFunctions = new GitFunctions(session);
+    }
+
+    /**
+     * Create another interactor for the same repository, to check rules from another thread.
+     * It has a session of its own that shares this one's snapshot, so {@link #captureSnapshot()} must have been called.
+     * Closing it leaves the repository open.
+     * @param shared the interactor that opened the repository
+     */
+    private GitInteractor(GitInteractor shared) {
+
+        repo = shared.repo;
+        repositoryPath = shared.repositoryPath;
+        profileReport = shared.profileReport;
+        traceBudget = shared.traceBudget;
+        ownsRepository = false;
+
+        session = new GradingSession(repo);
+        session.setSnapshot(shared.session.getSnapshot());
+        gitFunctions = new GitFunctions(session);
+        gitFunctions.setMemoryBudget(shared.gitFunctions.getMemoryBudget());
+        budgetStarted = shared.budgetStarted;
+        repositoryDeadline = shared.repositoryDeadline;
+    }
+
+    /**
+     * Capture the refs and commit index so that rules can be checked from several threads
+     * @throws IOException if the refs couldn't be read
+     */
+    void captureSnapshot() throws IOException {
+        gitFunctions.captureSnapshot();
+    }
+
+    boolean hasSnapshot() {
+        return session.getSnapshot() != null;
+    }
+
+    /**
+     * Create an interactor for another thread, sharing this one's snapshot
+     * @return the interactor, which should be closed by the thread when it has finished
+     */
+    GitInteractor createWorker() {
+
+        if (session.getSnapshot() == null) {
+            throw new IllegalStateException("A snapshot is needed before rules can be checked from other threads");
+        }
+        return new GitInteractor(this);
+    }
+
+    /**
+     * Record the cost of every rule checked from now on
+     * @param profileReport the report to add measurements to
+     */
+    void setProfileReport(ProfileReport profileReport) {
+        this.profileReport = profileReport;
+    }
+
+    /**
+     * Limit how many failing results keep their exception's stack trace
+     * @param traceBudget the budget shared by the run, or null for no limit
+     */
+    void setTraceBudget(TraceBudget traceBudget) {
+        this.traceBudget = traceBudget;
+    }
+
+    /**
+     * Keep what is held in memory for this repository within a budget
+     * @param memoryBudget the budget, or null for no limit
+     */
+    void setMemoryBudget(MemoryBudget memoryBudget) {
+        gitFunctions.setMemoryBudget(memoryBudget);
+    }
+
+    /**
+     * Start the time that indexing and checking every rule of this repository has to fit into.
+     * Only the first call starts it; workers created afterwards share it.
+     * @param millis the time allowed, or zero for no limit
+     */
+    void startTimeBudget(long millis) {
+        if (millis > 0 && !budgetStarted) {
+            budgetStarted = true;
+            repositoryDeadline = System.nanoTime() + millis * 1_000_000;
+        }
+    }
+
+    /**
+     * Release the session and the repository so its files are no longer held open
+     */
+    void close() {
+        session.close();
+        if (ownsRepository) {
+            repo.close();
+        }
+    }
+
+    String getRepositoryPath() {
+        return repositoryPath;
+    }
+
+    /**
+     * Summarise the refs, so that a later run can tell whether anything has been committed, branched or tagged
+     * since. Only the refs are read.
+     * @return the git hash of a listing of every ref and what it points at
+     * @throws IOException if the refs couldn't be read
+     */
+    String fingerprintRefs() throws IOException {
+
+        Map<String, Ref> refs = new TreeMap<>();
+        for (Ref ref : repo.getRefDatabase().getRefs()) {
+            refs.put(ref.getName(), ref);
+        }
+        Ref head = repo.exactRef(Constants.HEAD);
+        if (head != null) {
+            refs.put(Constants.HEAD, head);
+        }
+
+        StringBuilder listing = new StringBuilder();
+        for (Ref ref : refs.values()) {
+            listing.append(ref.getName()).append(' ')
+                    .append(ref.getObjectId() == null ? "-" : ref.getObjectId().name());
+            if (ref.isSymbolic()) {
+                listing.append(" -> ").append(ref.getTarget().getName());
+            }
+            listing.append('\n');
+        }
+
+        try (ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+            return formatter.idFor(Constants.OBJ_BLOB, Constants.encode(listing.toString())).name();
+        }
     }
 
+    /**
+     * Read the refs, pack indexes and HEAD tree before any rules are checked
+     * @throws IOException if the repository couldn't be read
+     */
+    void prefetch() throws IOException {
+        gitFunctions.prefetch();
+    }
+
+    /**
+     * Index the commit messages so that rules searching them don't each walk the history
+     * @return the index
+     * @throws IOException if the history couldn't be walked
+     */
+    CommitIndex buildCommitIndex() throws IOException {
+        gitFunctions.setCancellationToken(budgetStarted ? CancellationToken.until(repositoryDeadline) : CancellationToken.NONE);
+        try {
+            return gitFunctions.buildCommitIndex();
+        } finally {
+            gitFunctions.setCancellationToken(CancellationToken.NONE);
+        }
+    }
+
+    /**
+     * Count the commits reachable from HEAD, for estimating what checking rules will cost
+     * @return the number of commits
+     * @throws IOException if the history couldn't be walked
+     */
+    int countCommits() throws IOException {
+        return gitFunctions.getNumberOfCommits();
+    }
+
+    /**
+     * Check a rule against the repository, recording its cost if profiling or flight recording
+     * @param r the rule to check
+     * @return the result of the check
+     */
     RuleResult checkRule(Rule r) {
+        return checkRule(r, CancellationToken.NONE);
+    }
+
+    /**
+     * Check a rule against the repository, recording its cost if profiling or flight recording
+     * @param r the rule to check
+     * @param stop cancelled by another thread to stop the check early, e.g. once its result isn't needed
+     * @return the result of the check, which is a failure if it was stopped
+     */
+    RuleResult checkRule(Rule r, CancellationToken stop) {
+
+        RuleEvaluatedEvent event = FlightRecorderEvents.beginRuleEvaluated();
+
+        if (profileReport == null && event == null) {
+            return evaluateWithinTime(r, stop);
+        }
+
+        CountingObjectReader reader = gitFunctions.getReader();
+        long objectsBefore = reader.getObjectsOpened();
+        long bytesBefore = reader.getBytesInflated();
+        long commitsBefore = gitFunctions.getCommitsVisited();
+        long entriesBefore = gitFunctions.getTreeEntriesVisited();
+        long cpuBefore = currentThreadCpuTime();
+        long wallBefore = System.nanoTime();
+
+        RuleResult result = evaluateWithinTime(r, stop);
+
+        long wall = System.nanoTime() - wallBefore;
+        long cpu = currentThreadCpuTime() - cpuBefore;
+
+        long objectsOpened = reader.getObjectsOpened() - objectsBefore;
+        long bytesInflated = reader.getBytesInflated() - bytesBefore;
+
+        if (event != null) {
+            FlightRecorderEvents.commitRuleEvaluated(event, repositoryPath, r, result, objectsOpened, bytesInflated);
+        }
+
+        if (profileReport != null) {
+            profileReport.add(new RuleProfile(repositoryPath, r, wall, cpu, objectsOpened, bytesInflated,
+                    gitFunctions.getCommitsVisited() - commitsBefore,
+                    gitFunctions.getTreeEntriesVisited() - entriesBefore));
+        }
+
+        return result;
+    }
+
+    /**
+     * Check a rule, stopping it if it runs past its own time limit or the repository's, or is cancelled
+     * @param r the rule to check
+     * @param stop cancelled to stop the check early
+     * @return the result, marked as timed out if it ran out of time
+     */
+    private RuleResult evaluateWithinTime(Rule r, CancellationToken stop) {
+
+        long ruleTimeout = r.getTimeoutMillis();
+        boolean timed = ruleTimeout > 0 || budgetStarted;
+        if (!timed && stop == CancellationToken.NONE) {
+            return evaluateRule(r);
+        }
+
+        long deadline = ruleTimeout > 0 ? System.nanoTime() + ruleTimeout * 1_000_000 : repositoryDeadline;
+        boolean ruleLimitFirst = ruleTimeout > 0 && (!budgetStarted || deadline - repositoryDeadline < 0);
+        if (!ruleLimitFirst) {
+            deadline = repositoryDeadline;
+        }
+
+        CancellationToken token = timed ? stop.orUntil(deadline) : stop;
+        RuleResult result = null;
+
+        if (!token.hasExpired()) {
+            gitFunctions.setCancellationToken(token);
+            try {
+                result = evaluateRule(r);
+            } catch (RuleTimeoutException ignored) {
+                // reported below
+            } finally {
+                gitFunctions.setCancellationToken(CancellationToken.NONE);
+            }
+        }
+
+        if (stop.hasExpired()) {
+            result = new RuleResult();
+            result.setFailWithMessage("Stopped before finishing, as its result was no longer needed");
+        } else if (result == null || token.hasFired()) {
+            // the exception may have been caught and turned into an ordinary failure on the way out
+            result = new RuleResult();
+            result.setTimedOut(ruleLimitFirst
+                    ? "Stopped after the rule's time limit of " + ruleTimeout + " ms"
+                    : "Stopped as the repository's time limit ran out");
+        }
+        return result;
+    }
+
+    private static long currentThreadCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private RuleResult evaluateRule(Rule r) {
 
         switch (r.getRuleName()){
             case "head-exists":
@@ -104,7 +392,7 @@ class GitInteractor {
         int numCommits = 0;
         try {
             numCommits = gitFunctions.getNumberOfCommits();
-        } catch (GitAPIException e) {
+        } catch (IOException e) {
             ruleResult.setFailWithMessage("Failed to count the commits");
         }
         ruleResult.setPassed(numCommits >=  (int) r.details.getOrDefault("number", 0));
@@ -124,11 +412,13 @@ class GitInteractor {
 
         try {
 
-            if (!gitFunctions.doesTagExist(r.getTag())) {
+            Optional<RevCommit> tagged = gitFunctions.doesTagExist(r.getTag()) ? gitFunctions.findCommit(r.getTag()) : Optional.empty();
+
+            if (!tagged.isPresent()) {
                 ruleResult.setFailWithMessage("No commit has been tagged using that name");
             }else{
 
-                RevCommit commit = gitFunctions.getCommitFromRefString(r.getTag());
+                RevCommit commit = tagged.get();
 
                 // Check whether the commit edited that path
                 if (!gitFunctions.isPathUpdatedInCommit(r.getPath(), commit)){
@@ -177,7 +467,7 @@ class GitInteractor {
 
     private boolean doesPathInCommitContainText(Rule r, RevCommit commit) throws IOException {
         // Check that the file in that commit contained the required text
-        String fileContents = gitFunctions.getContentsOfFileInCommit(commit, r.getPath());
+        String fileContents = gitFunctions.getContentsOfFileInCommit(commit, r.getPath()).orElse("");
         String searchText = r.getContents();
         if (r.getIgnoreCase()){
             fileContents = fileContents.toLowerCase();
@@ -194,16 +484,17 @@ class GitInteractor {
      */
     private RuleResult checkTagIsOnCommitWithMessage(Rule r) {
         RuleResult result = new RuleResult();
-        RevCommit commit = gitFunctions.getCommitWithMessageContaining(r.getContents(), r.getIgnoreCase());
 
-        if (commit == null){
-            result.setFailWithMessage("There was no commit with that message");
-        }else{
-            try {
-                result.setPassed(gitFunctions.isCommitTagged(commit, r.getTag()));
-            } catch (IOException | GitAPIException e) {
-                result = createResultFromException(e);
+        try {
+            Optional<RevCommit> commit = gitFunctions.getCommitWithMessageContaining(r.getContents(), r.getIgnoreCase());
+
+            if (!commit.isPresent()){
+                result.setFailWithMessage("There was no commit with that message");
+            }else{
+                result.setPassed(gitFunctions.isCommitTagged(commit.get(), r.getTag()));
             }
+        } catch (IOException e) {
+            result = createResultFromException(e);
         }
 
         return result;
@@ -235,11 +526,14 @@ class GitInteractor {
 
         RuleResult result = new RuleResult();
         try {
-            result.setPassed(gitFunctions.wasCommitWithMessageMadeOnBranch(r.getBranch(), r.getContents(), r.getIgnoreCase()));
-        } catch (BranchNotFoundException e) {
-            result.setPassed(false);
-            result.setMessage("The branch with that name doesn't exist");
-        } catch (Exception e) {
+            BranchSearchResult search = gitFunctions.wasCommitWithMessageMadeOnBranch(r.getBranch(), r.getContents(), r.getIgnoreCase());
+            result.setPassed(search.isFound());
+            if (search == BranchSearchResult.NO_SUCH_BRANCH) {
+                result.setMessage("The branch with that name doesn't exist");
+            } else if (search == BranchSearchResult.NO_SUCH_COMMIT) {
+                result.setMessage("There was no commit with that message");
+            }
+        } catch (IOException | GitAPIException e) {
             return createResultFromException(e);
         }
 
@@ -256,12 +550,13 @@ class GitInteractor {
 
         RuleResult result = new RuleResult();
         try {
-            result.setPassed(gitFunctions.isChildOfCommitOnBranch(r.getBranch(), r.getContents(), r.getIgnoreCase()));
+            BranchSearchResult search = gitFunctions.isChildOfCommitOnBranch(r.getBranch(), r.getContents(), r.getIgnoreCase());
+            result.setPassed(search.isFound());
+            if (search == BranchSearchResult.NO_SUCH_BRANCH) {
+                result.setMessage("The branch with that name doesn't exist");
+            }
         } catch (IOException | GitAPIException e) {
             return createResultFromException(e);
-        } catch (BranchNotFoundException e) {
-            result.setPassed(false);
-            result.setMessage("The branch with that name doesn't exist");
         }
 
         return result;
@@ -296,20 +591,20 @@ class GitInteractor {
 
         try {
             // Get the tree and check its contents
-            RevCommit branchCommit = gitFunctions.getBranchCommit(r.getBranch());
-            ObjectId treeId = gitFunctions.getTreeIdFromPath(r.getPath(), branchCommit);
-
-            if (gitFunctions.isValidObjectId(treeId)) {
-                String fileContents = gitFunctions.getFileContents(treeId);
-                result.setPassed(fileContents.toLowerCase().contains(r.getContents().toLowerCase()));
+            Optional<RevCommit> branchCommit = gitFunctions.findBranchCommit(r.getBranch());
+
+            if (!branchCommit.isPresent()) {
+                result.setMessage("The branch with that name doesn't exist");
+            } else {
+                Optional<ObjectId> fileId = gitFunctions.findPathId(r.getPath(), branchCommit.get());
+                if (fileId.isPresent()) {
+                    String fileContents = gitFunctions.getFileContents(fileId.get());
+                    result.setPassed(fileContents.toLowerCase().contains(r.getContents().toLowerCase()));
+                }
             }
 
         } catch (Exception e) {
-            if (e.getMessage().startsWith("Could not find branch")) {
-                result.setMessage(e.getMessage());
-            }else{
-                result = createResultFromException(e);
-            }
+            result = createResultFromException(e);
         }
 
         return result;
@@ -320,11 +615,12 @@ class GitInteractor {
         RuleResult result = new RuleResult(false);
 
         try {
-            RevCommit branchCommit = gitFunctions.getBranchCommit(r.getBranch());
-            ObjectId pathId = gitFunctions.getTreeIdFromPath(r.getPath(), branchCommit);
+            Optional<RevCommit> branchCommit = gitFunctions.findBranchCommit(r.getBranch());
 
-            if (gitFunctions.isValidObjectId(pathId)){
-                result.setPassed(true);
+            if (!branchCommit.isPresent()) {
+                result.setMessage("The branch with that name doesn't exist");
+            } else {
+                result.setPassed(gitFunctions.findPathId(r.getPath(), branchCommit.get()).isPresent());
             }
         } catch (Exception e) {
             result = createResultFromException(e);
@@ -338,6 +634,12 @@ class GitInteractor {
         RuleResult result = new RuleResult();
         Path backupPath = null;
 
+        // A bare repository has no files to try ignoring
+        if (repo.isBare()) {
+            result.setFailWithMessage("The repository has no working tree to check ignored files in");
+            return result;
+        }
+
         Path path = Paths.get(repositoryPath + File.separator + r.getPath());
         String pathStringValue = r.getStringParameter("path");
 
@@ -374,9 +676,8 @@ class GitInteractor {
         }
 
         // Check if this appears in the diff
-        Git git = new Git(repo);
         try {
-            Status status = git.status().call();
+            Status status = session.getGit().status().call();
 
             // The path should not be in added or modified lists
             result.setPassed(!status.getAdded().contains(pathStringValue)
@@ -415,16 +716,21 @@ class GitInteractor {
     private RuleResult checkCommitWithContentsDoesntUpdatePath(Rule r) {
 
         RuleResult result = new RuleResult();
-        RevCommit commit = gitFunctions.getCommitWithMessageContaining(r.getContents(), r.getIgnoreCase());
 
-        if (commit == null){
-            result.setMessage("No commit with that message was found.");
-        }else{
-            if (gitFunctions.isPathUpdatedInCommit(r.getPath(), commit)) {
-                result.setMessage("That file was not updated in that commit");
+        try {
+            Optional<RevCommit> commit = gitFunctions.getCommitWithMessageContaining(r.getContents(), r.getIgnoreCase());
+
+            if (!commit.isPresent()){
+                result.setMessage("No commit with that message was found.");
             }else{
-                result.setPassed(true);
+                if (gitFunctions.isPathUpdatedInCommit(r.getPath(), commit.get())) {
+                    result.setMessage("That file was not updated in that commit");
+                }else{
+                    result.setPassed(true);
+                }
             }
+        } catch (IOException e) {
+            result = createResultFromException(e);
         }
 
         return result;
@@ -434,16 +740,21 @@ class GitInteractor {
     private RuleResult checkCommitWithContentsUpdatedPath(Rule r) {
 
         RuleResult result = new RuleResult();
-        RevCommit commit = gitFunctions.getCommitWithMessageContaining(r.getContents(), r.getIgnoreCase());
 
-        if (commit == null){
-            result.setMessage("No commit with that message was found.");
-        }else{
-            if (gitFunctions.isPathUpdatedInCommit(r.getPath(), commit)) {
-                result.setPassed(true);
+        try {
+            Optional<RevCommit> commit = gitFunctions.getCommitWithMessageContaining(r.getContents(), r.getIgnoreCase());
+
+            if (!commit.isPresent()){
+                result.setMessage("No commit with that message was found.");
             }else{
-                result.setMessage("That file was not updated in that commit");
+                if (gitFunctions.isPathUpdatedInCommit(r.getPath(), commit.get())) {
+                    result.setPassed(true);
+                }else{
+                    result.setMessage("That file was not updated in that commit");
+                }
             }
+        } catch (IOException e) {
+            result = createResultFromException(e);
         }
 
         return result;
@@ -467,7 +778,7 @@ class GitInteractor {
             }else{
                 resultsValue = gitFunctions.anyCommitMessagesContainsString(contents, caseInsensitive);
             }
-        } catch (IOException | GitAPIException e) {
+        } catch (IOException e) {
             resultsValue = false;
         }
 
@@ -479,15 +790,20 @@ class GitInteractor {
         RuleResult result = new RuleResult();
 
         try {
-            RevCommit commit = gitFunctions.getCommitFromRefString(Constants.HEAD);
-            String fileContents = gitFunctions.getContentsOfFileInCommit(commit, r.getPath());
+            Optional<RevCommit> head = gitFunctions.findCommit(Constants.HEAD);
+            if (!head.isPresent()) {
+                result.setMessage(NO_COMMITS_MESSAGE);
+                return result;
+            }
+
+            Optional<String> fileContents = gitFunctions.getContentsOfFileInCommit(head.get(), r.getPath());
 
             boolean foundMatch;
             if (r.getIgnoreCase()) {
-                foundMatch = fileContents != null && fileContents.toLowerCase().contains(r.getContents().toLowerCase());
+                foundMatch = fileContents.isPresent() && fileContents.get().toLowerCase().contains(r.getContents().toLowerCase());
             }
             else{
-                foundMatch = fileContents != null && fileContents.contains(r.getContents());
+                foundMatch = fileContents.isPresent() && fileContents.get().contains(r.getContents());
             }
 
             result.setPassed(foundMatch);
@@ -504,9 +820,12 @@ class GitInteractor {
         RuleResult result = new RuleResult();
 
         try {
-            RevCommit head = gitFunctions.getCommitFromRefString(Constants.HEAD);
-            boolean pathFound = gitFunctions.pathExistsInCommit(head, r.getPath(), id);
-            result.setPassed(pathFound);
+            Optional<RevCommit> head = gitFunctions.findCommit(Constants.HEAD);
+            if (head.isPresent()) {
+                result.setPassed(gitFunctions.pathExistsInCommit(head.get(), r.getPath(), id));
+            } else {
+                result.setMessage(NO_COMMITS_MESSAGE);
+            }
         } catch (Exception e) {
             result = createResultFromException(e);
         }
@@ -518,9 +837,12 @@ class GitInteractor {
         // Get the necessary parameters
         RuleResult result = new RuleResult();
         try {
-            RevCommit head = gitFunctions.getCommitFromRefString(Constants.HEAD);
-            boolean pathFound = gitFunctions.pathExistsInCommit(head, r.getPath());
-            result.setPassed(!pathFound);
+            Optional<RevCommit> head = gitFunctions.findCommit(Constants.HEAD);
+            if (head.isPresent()) {
+                result.setPassed(!gitFunctions.pathExistsInCommit(head.get(), r.getPath()));
+            } else {
+                result.setMessage(NO_COMMITS_MESSAGE);
+            }
         } catch (Exception e) {
             result.setPassed(false);
             result.setMessage("An error occurred when running this rule.");
@@ -534,7 +856,7 @@ class GitInteractor {
         RuleResult result = new RuleResult();
 
         try {
-            ObjectId head = repo.resolve(Constants.HEAD);
+            ObjectId head = session.resolve(Constants.HEAD);
             result.setPassed(head != null);
         } catch (Exception e) {
             result.setPassed(false);
@@ -549,9 +871,12 @@ class GitInteractor {
         // Get the necessary parameters
         RuleResult result = new RuleResult(false);
         try {
-            RevCommit head = gitFunctions.getCommitFromRefString(Constants.HEAD);
-            boolean pathFound = gitFunctions.pathExistsInCommit(head, r.getPath());
-            result.setPassed(pathFound);
+            Optional<RevCommit> head = gitFunctions.findCommit(Constants.HEAD);
+            if (head.isPresent()) {
+                result.setPassed(gitFunctions.pathExistsInCommit(head.get(), r.getPath()));
+            } else {
+                result.setMessage(NO_COMMITS_MESSAGE);
+            }
         } catch (Exception e) {
             result.setMessage("An error occurred when running this rule.");
         }
@@ -563,12 +888,12 @@ class GitInteractor {
         RuleResult result = new RuleResult();
         result.setPassed(false);
         result.setMessage("An error occurred when running this rule.");
-        result.setExceptionMessage(e.getMessage());
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter(sw);
-        e.printStackTrace(pw);
-        result.setExceptionTrace(sw.toString());
-        result.exceptionOccurred = true;
+        if (traceBudget == null || traceBudget.tryRetain()) {
+            result.setException(e);
+        } else {
+            result.setExceptionMessage(e.getMessage());
+            result.exceptionOccurred = true;
+        }
         return result;
     }
 }
@@ -0,0 +1,354 @@
+package gitruler;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything used to read one repository while its rules are checked: a single object reader, a single
+ * revision walk that is reused between queries, and caches of the refs and paths that several rules look up.
+ * Closing the session releases all of it.
+ *
+ * A session is not thread safe. It can be handed from one thread to another but only used by one at a time.
+ * To check rules from several threads at once, give each thread its own session sharing a {@link RepositorySnapshot},
+ * which then answers the ref, branch and path lookups for all of them.
+ *
+ * With a memory budget, the commits the shared walk keeps and the entries in the caches are charged to it.
+ * When the budget runs out the caches are cleared, and the walk lets go of its commits before the next query.
+ */
+class GradingSession implements AutoCloseable {
+
+    /** Cached for paths that aren't in a commit, as null means nothing is cached */
+    private static final ObjectId NOT_FOUND = ObjectId.zeroId();
+
+    /** Rough heap taken by a commit in the walk besides its body: the object, its parents and the map slot */
+    private static final int BYTES_PER_COMMIT = 120;
+
+    /** Rough heap taken by a cache entry besides its key: the entry, the id and the map slot */
+    private static final int BYTES_PER_CACHE_ENTRY = 100;
+
+    private final Repository repo;
+    private final CountingObjectReader reader;
+    private final RevWalk walk;
+    private final Git git;
+
+    private final Map<String, ObjectId> resolved = new HashMap<>();
+    private final Map<String, ObjectId> paths = new HashMap<>();
+    private List<Ref> branches;
+    private RepositorySnapshot snapshot;
+
+    private final RevFilter chargeCommits = new ChargeCommits();
+    private MemoryBudget memoryBudget;
+    private RevFlag charged;
+    private long walkBytes;
+    private long cacheBytes;
+    private boolean walkOverBudget;
+
+    /**
+     * Start a session on a repository. The repository stays open when the session is closed.
+     * @param repo the repository to read
+     */
+    GradingSession(Repository repo) {
+        this.repo = repo;
+        this.reader = new CountingObjectReader(repo.newObjectReader());
+        this.walk = new RevWalk(reader);
+        this.git = Git.wrap(repo);
+        newChargedFlag();
+    }
+
+    Repository getRepository() {
+        return repo;
+    }
+
+    CountingObjectReader getReader() {
+        return reader;
+    }
+
+    Git getGit() {
+        return git;
+    }
+
+    /**
+     * Answer lookups from a snapshot shared with other sessions from now on
+     * @param snapshot the snapshot
+     */
+    void setSnapshot(RepositorySnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return the shared snapshot or null if there isn't one
+     */
+    RepositorySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Charge what the shared walk and the caches hold to a budget from now on
+     * @param memoryBudget the budget, or null for no limit
+     */
+    void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Get the shared walk, ready for a new query. Commits parsed by earlier queries are kept, so walking
+     * the same history again doesn't read it again, unless the last query ran out of memory budget.
+     * Don't give it a filter: its revision filter charges the commits it keeps to the budget, and a tree
+     * filter rewrites the parents of the shared commits. Use {@link #newWalk()} for that.
+     * @return the walk with no start points or flags
+     */
+    RevWalk getWalk() {
+        walk.reset();
+        if (walkOverBudget) {
+            releaseWalk();
+        }
+        walk.setRevFilter(chargeCommits);
+        walk.setTreeFilter(TreeFilter.ALL);
+        return walk;
+    }
+
+    /**
+     * Includes every commit, charging each to the budget the first time the walk keeps it
+     */
+    private class ChargeCommits extends RevFilter {
+
+        @Override
+        public boolean include(RevWalk walker, RevCommit commit) {
+            charge(commit);
+            return true;
+        }
+
+        @Override
+        public RevFilter clone() {
+            return this;
+        }
+    }
+
+    /**
+     * Charge a commit kept by the shared walk to the budget. If there isn't room the caches are cleared
+     * straight away, but the walk's commits are only released before the next query, as they may be in use.
+     * @param commit the commit
+     */
+    private void charge(RevCommit commit) {
+
+        if (memoryBudget == null || commit.has(charged)) {
+            return;
+        }
+
+        byte[] body = commit.getRawBuffer();
+        long bytes = BYTES_PER_COMMIT + (body == null ? 0 : body.length);
+
+        if (memoryBudget.tryReserve(bytes)) {
+            walkBytes += bytes;
+            commit.add(charged);
+        } else {
+            clearCaches();
+            walkOverBudget = true;
+        }
+    }
+
+    /**
+     * Drop every commit the shared walk holds and give their memory back
+     */
+    private void releaseWalk() {
+        walk.dispose();
+        newChargedFlag();
+        release(walkBytes);
+        walkBytes = 0;
+        walkOverBudget = false;
+    }
+
+    /**
+     * Disposing of the walk invalidates its flags, so the flag marking charged commits is made again after
+     */
+    private void newChargedFlag() {
+        charged = walk.newFlag("charged");
+        walk.retainOnReset(charged);
+    }
+
+    /**
+     * Parse a commit with the shared walk, without disturbing a query in progress
+     * @param id the commit's id
+     * @return the parsed commit
+     * @throws IOException if it isn't a commit or couldn't be read
+     */
+    RevCommit parseCommit(AnyObjectId id) throws IOException {
+        RevCommit commit = walk.parseCommit(id);
+        charge(commit);
+        return commit;
+    }
+
+    /**
+     * Parse any object with the shared walk, following annotated tags to what they tag
+     * @param id the object's id
+     * @return the parsed object, which is only a commit if the id names one
+     * @throws IOException if it couldn't be read
+     */
+    RevObject parsePeeled(AnyObjectId id) throws IOException {
+
+        RevObject object = walk.peel(walk.parseAny(id));
+        if (object instanceof RevCommit) {
+            charge((RevCommit) object);
+        }
+        return object;
+    }
+
+    /**
+     * Create a walk of its own on the shared reader, for queries that filter or drop commit bodies.
+     * It should be closed when finished with.
+     * @return the walk
+     */
+    RevWalk newWalk() {
+        return new RevWalk(reader);
+    }
+
+    /**
+     * Create a tree walk on the shared reader. It should be closed when finished with.
+     * @return the tree walk
+     */
+    TreeWalk newTreeWalk() {
+        return new TreeWalk(reader);
+    }
+
+    /**
+     * Resolve a revision such as HEAD or a tag name, remembering the answer
+     * @param revision the revision
+     * @return its object id or null if it doesn't exist
+     * @throws IOException Git exception
+     */
+    ObjectId resolve(String revision) throws IOException {
+
+        if (snapshot != null) {
+            return snapshot.resolve(repo, revision);
+        }
+
+        if (resolved.containsKey(revision)) {
+            return resolved.get(revision);
+        }
+
+        ObjectId id = repo.resolve(revision);
+        if (reserveCacheEntry(revision)) {
+            resolved.put(revision, id);
+        }
+        return id;
+    }
+
+    /**
+     * Get the local branches, listing them the first time only
+     * @return the branches
+     * @throws GitAPIException Git exception
+     */
+    List<Ref> getBranches() throws GitAPIException {
+
+        if (snapshot != null) {
+            return snapshot.getBranches();
+        }
+
+        if (branches == null) {
+            branches = git.branchList().call();
+        }
+        return branches;
+    }
+
+    /**
+     * Something that finds the object at a path in a commit
+     */
+    interface PathFinder {
+        ObjectId find() throws IOException;
+    }
+
+    /**
+     * Find the object at a path in a commit, remembering the answer
+     * @param commit the commit
+     * @param path the path
+     * @param finder looks for the path if it hasn't been looked for in this commit before
+     * @return the id of the object or null if there is nothing at that path
+     * @throws IOException Git exception
+     */
+    ObjectId findPath(AnyObjectId commit, String path, PathFinder finder) throws IOException {
+
+        if (snapshot != null) {
+            return snapshot.findPath(commit, path, finder);
+        }
+
+        String key = commit.name() + ':' + path;
+        ObjectId id = paths.get(key);
+
+        if (id == null) {
+            id = finder.find();
+            if (reserveCacheEntry(key)) {
+                paths.put(key, id == null ? NOT_FOUND : id);
+            }
+        }
+
+        return id == NOT_FOUND ? null : id;
+    }
+
+    /**
+     * Charge a new cache entry to the budget. If there isn't room the caches are cleared to make some,
+     * and the walk's commits are released before the next query.
+     * @param key the entry's key
+     * @return false if there isn't room even then, so the answer shouldn't be cached
+     */
+    private boolean reserveCacheEntry(String key) {
+
+        if (memoryBudget == null) {
+            return true;
+        }
+
+        long bytes = BYTES_PER_CACHE_ENTRY + 2L * key.length();
+        if (!memoryBudget.tryReserve(bytes)) {
+            clearCaches();
+            walkOverBudget = true;
+            if (!memoryBudget.tryReserve(bytes)) {
+                return false;
+            }
+        }
+
+        cacheBytes += bytes;
+        return true;
+    }
+
+    private void clearCaches() {
+        resolved.clear();
+        paths.clear();
+        release(cacheBytes);
+        cacheBytes = 0;
+    }
+
+    private void release(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    /**
+     * Release the walk, the reader and the caches, giving back what was charged to the budget
+     */
+    @Override
+    public void close() {
+        walk.close();
+        git.close();
+        reader.close();
+        clearCaches();
+        release(walkBytes);
+        walkBytes = 0;
+        branches = null;
+    }
+}
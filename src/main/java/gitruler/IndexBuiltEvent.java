@@ -0,0 +1,26 @@
+package gitruler;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for building an index that is shared by the rules checked against a repository.
+ */
+@Name("gitruler.IndexBuilt")
+@Label("Index Built")
+@Category("GitRuler")
+@StackTrace(false)
+class IndexBuiltEvent extends Event {
+
+    @Label("Index")
+    String index;
+
+    @Label("Repository")
+    String repository;
+
+    @Label("Entries")
+    long entries;
+
+    @Label("Estimated Size")
+    @DataAmount
+    long estimatedBytes;
+}
@@ -0,0 +1,67 @@
+package gitruler;
+
+/**
+ * What one repository may hold on to while it is graded, e.g. its commit index and the file contents being checked.
+ *
+ * Sizes are estimates of the heap used, not measurements. Reserving beyond the share granted when the
+ * repository was admitted asks the {@link MemoryGovernor} for more, which fails rather than waits.
+ */
+class MemoryBudget {
+
+    private final MemoryGovernor governor;
+    private final long limitBytes;
+    private long grantedBytes;
+    private long usedBytes;
+    private long peakUsedBytes;
+
+    MemoryBudget(MemoryGovernor governor, long grantedBytes, long limitBytes) {
+        this.governor = governor;
+        this.grantedBytes = grantedBytes;
+        this.limitBytes = limitBytes;
+    }
+
+    /**
+     * Reserve some of the budget
+     * @param bytes how much to reserve
+     * @return false if that would go over the repository's limit or the global budget
+     */
+    synchronized boolean tryReserve(long bytes) {
+
+        long needed = usedBytes + bytes;
+        if (needed > limitBytes) {
+            return false;
+        }
+
+        if (needed > grantedBytes) {
+            if (!governor.tryGrant(needed - grantedBytes)) {
+                return false;
+            }
+            grantedBytes = needed;
+        }
+
+        usedBytes = needed;
+        peakUsedBytes = Math.max(peakUsedBytes, usedBytes);
+        return true;
+    }
+
+    synchronized void release(long bytes) {
+        usedBytes = Math.max(0, usedBytes - bytes);
+    }
+
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    synchronized long getPeakUsedBytes() {
+        return peakUsedBytes;
+    }
+
+    /**
+     * Give the whole share back to the governor
+     */
+    synchronized void close() {
+        governor.release(grantedBytes);
+        grantedBytes = 0;
+        usedBytes = 0;
+    }
+}
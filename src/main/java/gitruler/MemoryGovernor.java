@@ -0,0 +1,75 @@
+package gitruler;
+
+/**
+ * Shares out a heap budget between the repositories being graded at once.
+ *
+ * Each repository is admitted with a first guess at what it needs, waiting while the budget is used up,
+ * and can grow its share later up to a per-repository limit if there is room. What a repository
+ * can't get it must do without, e.g. by not keeping a commit index.
+ */
+class MemoryGovernor {
+
+    private final long budgetBytes;
+    private final long repositoryLimitBytes;
+    private long grantedBytes;
+    private long peakGrantedBytes;
+
+    /**
+     * @param budgetBytes the most that can be granted to all repositories together
+     * @param repositoryLimitBytes the most that can be granted to one repository
+     */
+    MemoryGovernor(long budgetBytes, long repositoryLimitBytes) {
+        this.budgetBytes = budgetBytes;
+        this.repositoryLimitBytes = Math.min(budgetBytes, repositoryLimitBytes);
+    }
+
+    /**
+     * Wait until there is room for another repository. One repository is always let in, however big.
+     * @param initialBytes a guess at what the repository will need
+     * @return the repository's budget, which must be closed when the repository is finished with
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized MemoryBudget admit(long initialBytes) throws InterruptedException {
+
+        long bytes = Math.min(initialBytes, repositoryLimitBytes);
+        while (grantedBytes > 0 && grantedBytes + bytes > budgetBytes) {
+            wait();
+        }
+
+        grant(bytes);
+        return new MemoryBudget(this, bytes, repositoryLimitBytes);
+    }
+
+    /**
+     * Grant more to a repository if there is room, without waiting
+     * @param bytes how much more
+     * @return true if it was granted
+     */
+    synchronized boolean tryGrant(long bytes) {
+
+        if (grantedBytes + bytes > budgetBytes) {
+            return false;
+        }
+
+        grant(bytes);
+        return true;
+    }
+
+    synchronized void release(long bytes) {
+        grantedBytes -= bytes;
+        notifyAll();
+    }
+
+    private void grant(long bytes) {
+        grantedBytes += bytes;
+        peakGrantedBytes = Math.max(peakGrantedBytes, grantedBytes);
+    }
+
+    synchronized long getGrantedBytes() {
+        return grantedBytes;
+    }
+
+    synchronized long getPeakGrantedBytes() {
+        return peakGrantedBytes;
+    }
+}
@@ -0,0 +1,102 @@
+package gitruler;
+
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes results as newline delimited JSON: a line for each rule checked and then a line for the
+ * repository as a whole. Each line is a complete object with a "type" of "rule" or "repository", and the
+ * lines for a repository are flushed together once it is finished.
+ */
+class NdjsonResultSink implements ResultSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer writer;
+
+    /**
+     * Create the file, replacing anything already there
+     * @param file the file to write to
+     * @throws IOException if it couldn't be created
+     */
+    NdjsonResultSink(File file) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    NdjsonResultSink(Writer writer) {
+        this.writer = new BufferedWriter(writer, BUFFER_SIZE);
+    }
+
+    @Override
+    public void repositoryGraded(RepositoryResult result) throws IOException {
+
+        double available = 0;
+        for (int i = 0; i < result.getRules().size(); i++) {
+
+            Rule rule = result.getRules().get(i);
+            available += rule.getScoreIfCorrect();
+            if (rule.getRuleName().equals(Rule.TEXT_RULE_NAME)) {
+                continue;
+            }
+
+            RuleResult ruleResult = result.getResults().get(i);
+            boolean passed = ruleResult != null && ruleResult.hasPassed();
+
+            JSONObject line = new JSONObject();
+            line.put("type", "rule");
+            line.put("repository", result.getRepositoryName());
+            line.put("rule-number", i + 1);
+            line.put("rule", rule.getRuleName());
+            line.put("title", rule.getTitle());
+            line.put("passed", passed);
+            line.put("skipped", ruleResult == null);
+            line.put("score", passed ? rule.getScoreIfCorrect() : 0d);
+            line.put("max-score", rule.getScoreIfCorrect());
+            if (ruleResult != null) {
+                line.put("timed-out", ruleResult.isTimedOut());
+                line.put("message", ruleResult.getMessage());
+                if (ruleResult.exceptionOccurred) {
+                    line.put("exception", ruleResult.getExceptionMessage());
+                }
+            }
+            writeLine(line);
+        }
+
+        JSONObject line = new JSONObject();
+        line.put("type", "repository");
+        line.put("repository", result.getRepositoryName());
+        line.put("path", result.getRepositoryPath());
+        line.put("score", result.getTotalScore());
+        line.put("max-score", available);
+        line.put("skipped-rules", result.hasSkippedRules());
+        line.put("grading-ms", result.getGradingNanos() / 1_000_000d);
+        writeLine(line);
+
+        writer.flush();
+    }
+
+    @Override
+    public void repositoryFailed(File folder, String reason) throws IOException {
+
+        JSONObject line = new JSONObject();
+        line.put("type", "repository");
+        line.put("repository", folder.getName());
+        line.put("path", folder.getPath());
+        line.put("error", reason);
+        writeLine(line);
+
+        writer.flush();
+    }
+
+    private void writeLine(JSONObject line) throws IOException {
+        line.write(writer);
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
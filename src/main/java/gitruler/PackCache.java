@@ -0,0 +1,148 @@
+package gitruler;
+
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+import org.json.JSONObject;
+
+import java.io.PrintStream;
+
+/**
+ * Sizes JGit's pack cache and keeps track of how full it gets.
+ *
+ * JGit reads pack files through one cache for the whole process, holding windows of each pack and a limited
+ * number of open pack files, plus a cache of delta bases for each reader. Its defaults suit one repository at
+ * a time; in a batch run hundreds of packs pass through the cache and the same windows are read over and over,
+ * so the batch defaults here are sized from the heap and the number of readers instead.
+ *
+ * In memory mapped mode the windows are mappings of the pack files rather than copies in the heap. Grading only
+ * reads, so the same pack mapped by several repositories (through alternates or hard links to a starter
+ * repository) is read from one copy in the operating system's page cache, however many threads read it. The
+ * limit is then the size of the cache in windows rather than heap, so the windows can be much bigger. It
+ * doesn't bound how many mappings the process has: a window evicted from the cache stays mapped until it is
+ * garbage collected. Pack indexes are still read into the heap, as JGit 5.0 has no way of mapping them.
+ *
+ * JGit 5.0 doesn't count cache hits, only how many pack files and bytes are open, so those are sampled as the
+ * run goes. A cache that is often at its limit is evicting windows that may be needed again.
+ */
+class PackCache {
+
+    private static final int KB = WindowCacheConfig.KB;
+    private static final int MB = WindowCacheConfig.MB;
+
+    /** The window size when mapping packs, as a mapping costs address space rather than heap */
+    static final int MAPPED_WINDOW_SIZE = MB;
+
+    private final WindowCacheConfig config;
+    private int peakOpenFiles;
+    private long peakOpenBytes;
+    private int samples;
+    private int samplesAtLimit;
+
+    /**
+     * @param config the settings, which must already have been installed
+     */
+    PackCache(WindowCacheConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Get settings for a batch run
+     * @param maxHeapBytes the most the heap can grow to
+     * @param readers how many repositories can be read from at once, each with a delta base cache of its own
+     * @return the settings: an eighth of the heap for pack windows, a sixteenth shared between the
+     * readers' delta base caches, larger windows and enough open files for every reader
+     */
+    static WindowCacheConfig batchDefaults(long maxHeapBytes, int readers) {
+
+        WindowCacheConfig config = new WindowCacheConfig();
+        readers = Math.max(1, readers);
+
+        long limit = clamp(maxHeapBytes / 8, config.getPackedGitLimit(), 1024L * MB);
+        config.setPackedGitLimit(limit);
+        config.setPackedGitWindowSize(limit >= 64L * MB ? 64 * KB : config.getPackedGitWindowSize());
+        config.setPackedGitOpenFiles((int) clamp(readers * 4L, config.getPackedGitOpenFiles(), 1024));
+        config.setDeltaBaseCacheLimit((int) clamp(maxHeapBytes / 16 / readers, MB, 64L * MB));
+
+        return config;
+    }
+
+    /**
+     * Switch settings to memory mapping the packs
+     * @param config the settings to change
+     * @param windowSize the size of each mapping, or null for {@link #MAPPED_WINDOW_SIZE}
+     * @param cachedWindows how many windows the cache keeps, which sets the limit
+     */
+    static void mapPacks(WindowCacheConfig config, Integer windowSize, int cachedWindows) {
+        config.setPackedGitMMAP(true);
+        config.setPackedGitWindowSize(windowSize != null ? windowSize : MAPPED_WINDOW_SIZE);
+        config.setPackedGitLimit((long) config.getPackedGitWindowSize() * Math.max(1, cachedWindows));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Note how full the cache is now. Can be called from any thread.
+     */
+    synchronized void sample() {
+
+        int openFiles = WindowCacheStats.getOpenFiles();
+        long openBytes = WindowCacheStats.getOpenBytes();
+
+        peakOpenFiles = Math.max(peakOpenFiles, openFiles);
+        peakOpenBytes = Math.max(peakOpenBytes, openBytes);
+        samples++;
+        if (openFiles >= config.getPackedGitOpenFiles() || openBytes + config.getPackedGitWindowSize() > config.getPackedGitLimit()) {
+            samplesAtLimit++;
+        }
+    }
+
+    /**
+     * Print the settings and how full the cache got
+     * @param out where to print
+     */
+    synchronized void print(PrintStream out) {
+
+        out.println();
+        out.println(String.format("Pack cache: %d KB windows, %d MB limit, %d open files, %d MB delta base cache per reader, mmap %s",
+                config.getPackedGitWindowSize() / KB, config.getPackedGitLimit() / MB, config.getPackedGitOpenFiles(),
+                config.getDeltaBaseCacheLimit() / MB, config.isPackedGitMMAP() ? "on" : "off"));
+        out.println(String.format("Peak use: %d open files, %.1f MB open (%.0f%% of the limit), at a limit in %d of %d samples",
+                peakOpenFiles, peakOpenBytes / (double) MB, 100d * peakOpenBytes / config.getPackedGitLimit(),
+                samplesAtLimit, samples));
+        if (config.isPackedGitMMAP()) {
+            out.println(String.format("Mapped windows: up to %d cached, %.1f MB cached at the peak",
+                    getCachedWindows(), peakOpenBytes / (double) MB));
+        }
+    }
+
+    /**
+     * @return how many full size windows fit in the limit. Evicted windows aren't counted, although they stay
+     * mapped until garbage collected.
+     */
+    private long getCachedWindows() {
+        return config.getPackedGitLimit() / config.getPackedGitWindowSize();
+    }
+
+    /**
+     * @return the settings and how full the cache got, as JSON
+     */
+    synchronized JSONObject toJson() {
+
+        JSONObject json = new JSONObject();
+        json.put("window-size", config.getPackedGitWindowSize());
+        json.put("limit", config.getPackedGitLimit());
+        json.put("open-files", config.getPackedGitOpenFiles());
+        json.put("delta-base-cache", config.getDeltaBaseCacheLimit());
+        json.put("mmap", config.isPackedGitMMAP());
+        json.put("peak-open-files", peakOpenFiles);
+        json.put("peak-open-bytes", peakOpenBytes);
+        json.put("samples", samples);
+        json.put("samples-at-limit", samplesAtLimit);
+        if (config.isPackedGitMMAP()) {
+            json.put("cached-windows", getCachedWindows());
+        }
+        return json;
+    }
+}
@@ -0,0 +1,291 @@
+package gitruler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+/**
+ * Checks the rules of one repository on several threads at once, with the same results as checking them in turn.
+ *
+ * A stop-on-fail rule is a barrier: the rules after it only start once it has passed, and are skipped if it
+ * fails. The rules between two barriers, including the later barrier itself, don't depend on each other and
+ * are checked together. The exception is ignored rules, which create and delete files in the working folder,
+ * so those are checked one after another. Results are reported in config order as soon as every rule before
+ * them has been reported. Within a stretch the rules start in the order the {@link EvaluationPlanner} chooses.
+ *
+ * In speculative mode the rules after a barrier don't wait for it: they start at once on spare threads, and
+ * their results are thrown away if the barrier fails. Rules not yet started when a barrier fails are never
+ * started, and those already running are cancelled and not waited for. Ignored rules still wait for the barriers before them, as what they do to the working folder
+ * can't be thrown away. The results reported are the same either way.
+ */
+class ParallelRuleEvaluator {
+
+    private final ExecutorService executor;
+    private EvaluationPlanner planner = new EvaluationPlanner(null);
+    private boolean speculative;
+
+    /**
+     * @param executor runs the rule checks. Its threads should not be the ones calling evaluate, and it
+     *                 should run tasks in the order they are given to it, as a ForkJoinPool in async mode does.
+     */
+    ParallelRuleEvaluator(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param planner chooses the order the rules in a stretch start in
+     */
+    void setPlanner(EvaluationPlanner planner) {
+        this.planner = planner;
+    }
+
+    /**
+     * @param speculative whether to start the rules after a barrier before it has passed
+     */
+    void setSpeculative(boolean speculative) {
+        this.speculative = speculative;
+    }
+
+    /**
+     * Check the rules against a repository
+     * @param git the repository, whose snapshot is captured first if it doesn't have one
+     * @param rules the rules in config order
+     * @param ruleChecked if not null, called in config order with each rule and its result, which is null if skipped
+     * @param repositoryResult where the results are added in config order
+     */
+    void evaluate(GitInteractor git, Iterable<Rule> rules, BiConsumer<Rule, RuleResult> ruleChecked, RepositoryResult repositoryResult) {
+
+        if (!git.hasSnapshot()) {
+            try {
+                git.captureSnapshot();
+            } catch (IOException e) {
+                // without a snapshot the rules can't be shared between threads, so check them here in turn
+                RepositoryGrader.checkInTurn(git, rules, ruleChecked, repositoryResult);
+                return;
+            }
+        }
+
+        Evaluation evaluation = new Evaluation(git, rules);
+        try {
+            evaluation.start(planner.evaluationOrder(evaluation.rules));
+
+            boolean skipped = false;
+            for (int i = 0; i < evaluation.rules.size(); i++) {
+
+                Rule rule = evaluation.rules.get(i);
+                // after a failed barrier any speculative result, or failure, is thrown away
+                RuleResult result = skipped ? null : join(evaluation.results.get(i));
+
+                if (ruleChecked != null) {
+                    ruleChecked.accept(rule, result);
+                }
+                repositoryResult.add(rule, result);
+
+                if (!skipped && result != null && !result.hasPassed() && rule.stopOnFail()) {
+                    skipped = true;
+                    repositoryResult.setSkippedRules();
+                    // in case the callbacks watching the barrier haven't run yet
+                    evaluation.failBarrier(i);
+                }
+            }
+
+        } finally {
+            evaluation.close();
+        }
+    }
+
+    /**
+     * The checking of one repository's rules
+     */
+    private class Evaluation {
+
+        final GitInteractor git;
+        final List<Rule> rules = new ArrayList<>();
+        final List<CompletableFuture<RuleResult>> results = new ArrayList<>();
+        final Queue<GitInteractor> workers = new ConcurrentLinkedQueue<>();
+
+        // the position of the first barrier known to have failed; rules after it needn't start
+        final AtomicInteger failedBarrier = new AtomicInteger(Integer.MAX_VALUE);
+
+        // cancels the check of each rule that has started
+        final AtomicReferenceArray<CancellationToken> stops;
+
+        // once closed, workers still checking rules after a failed barrier close themselves when they stop
+        volatile boolean closed;
+
+        Evaluation(GitInteractor git, Iterable<Rule> rules) {
+            this.git = git;
+            for (Rule rule : rules) {
+                this.rules.add(rule);
+                this.results.add(new CompletableFuture<>());
+            }
+            stops = new AtomicReferenceArray<>(this.rules.size());
+        }
+
+        /**
+         * Start each stretch once the barriers before it have passed
+         * @param order the positions of the rules in the order they should start, a stretch at a time
+         */
+        void start(List<Integer> order) {
+
+            // whether every barrier so far has passed
+            CompletableFuture<Boolean> gate = CompletableFuture.completedFuture(true);
+
+            int from = 0;
+            for (int to = 1; to <= rules.size(); to++) {
+
+                Rule last = rules.get(to - 1);
+                if (!last.stopOnFail() && to < rules.size()) {
+                    continue;
+                }
+
+                startStretch(order.subList(from, to), gate);
+
+                if (last.stopOnFail()) {
+                    int barrier = to - 1;
+                    CompletableFuture<RuleResult> result = results.get(barrier);
+                    // noticed as soon as it fails, even if an earlier barrier hasn't finished
+                    result.thenAccept(r -> passedBarrier(barrier, r));
+                    gate = gate.thenCombine(result, (open, r) -> passedBarrier(barrier, r) && open);
+                }
+                from = to;
+            }
+        }
+
+        private boolean passedBarrier(int barrier, RuleResult result) {
+            if (result != null && result.hasPassed()) {
+                return true;
+            }
+            failBarrier(barrier);
+            return false;
+        }
+
+        /**
+         * Stop the rules after a barrier that has failed from starting, and cancel those already started
+         */
+        void failBarrier(int barrier) {
+
+            failedBarrier.accumulateAndGet(barrier, Math::min);
+
+            // the rules after it that have already started are only wasting time now
+            for (int position = barrier + 1; position < rules.size(); position++) {
+                CancellationToken stop = stops.get(position);
+                if (stop != null) {
+                    stop.cancel();
+                }
+            }
+        }
+
+        private void startStretch(List<Integer> stretch, CompletableFuture<Boolean> gate) {
+
+            List<List<Integer>> gated = new ArrayList<>();
+            List<List<Integer>> early = new ArrayList<>();
+
+            // ignored rules all take one turn, one after another, where the first of them would start
+            List<Integer> ignored = null;
+            for (int position : stretch) {
+                if (isIgnoredRule(rules.get(position))) {
+                    if (ignored == null) {
+                        ignored = new ArrayList<>();
+                        gated.add(ignored);
+                    }
+                    ignored.add(position);
+                } else {
+                    (speculative ? early : gated).add(Collections.singletonList(position));
+                }
+            }
+
+            for (List<Integer> turn : early) {
+                submit(turn);
+            }
+
+            gate.whenComplete((open, failure) -> {
+                for (List<Integer> turn : gated) {
+                    if (Boolean.TRUE.equals(open)) {
+                        submit(turn);
+                    } else {
+                        turn.forEach(position -> results.get(position).complete(null));
+                    }
+                }
+            });
+        }
+
+        private void submit(List<Integer> turn) {
+            try {
+                executor.execute(() -> turn.forEach(this::check));
+            } catch (RejectedExecutionException e) {
+                turn.forEach(position -> results.get(position).completeExceptionally(e));
+            }
+        }
+
+        /**
+         * Check a rule with a worker that no other thread is using, unless a barrier before it has failed
+         */
+        private void check(int position) {
+
+            CompletableFuture<RuleResult> result = results.get(position);
+
+            // set before looking at the barriers, so that one failing from now on cancels it
+            CancellationToken stop = CancellationToken.cancellable();
+            stops.set(position, stop);
+            if (position > failedBarrier.get()) {
+                result.complete(null);
+                return;
+            }
+
+            GitInteractor worker = workers.poll();
+            try {
+                if (worker == null) {
+                    worker = git.createWorker();
+                }
+                result.complete(worker.checkRule(rules.get(position), stop));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                if (worker != null) {
+                    workers.offer(worker);
+                    if (closed) {
+                        closeIdleWorkers();
+                    }
+                }
+            }
+        }
+
+        void close() {
+            // if a rule threw, let the others finish before their workers are closed, apart from those after
+            // a failed barrier, which have been cancelled and whose workers close themselves once they stop
+            int kept = Math.min(failedBarrier.get(), results.size() - 1) + 1;
+            CompletableFuture.allOf(results.subList(0, kept).toArray(new CompletableFuture<?>[0])).handle((r, e) -> null).join();
+            closed = true;
+            closeIdleWorkers();
+        }
+
+        private void closeIdleWorkers() {
+            GitInteractor worker;
+            while ((worker = workers.poll()) != null) {
+                worker.close();
+            }
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isIgnoredRule(Rule rule) {
+        return "ignored".equals(rule.getRuleName());
+    }
+}
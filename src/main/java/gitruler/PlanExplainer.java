@@ -0,0 +1,171 @@
+package gitruler;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Prints how a config's rules would be checked, without checking them: what each rule reads, the order they
+ * start in, what is read once and shared between them, and what they are likely to cost. Rules are numbered
+ * from one in config order.
+ */
+class PlanExplainer {
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final EvaluationPlanner planner;
+
+    PlanExplainer(EvaluationPlanner planner) {
+        this.planner = planner;
+    }
+
+    /**
+     * Print the plan
+     * @param config the rules
+     * @param size the estimated size of the repository they would be checked against, or null if not known
+     * @param commits the number of commits in that repository, or -1 if not known
+     * @param out where to print
+     */
+    void print(GitRulerConfig config, RepositorySize size, long commits, PrintStream out) {
+
+        List<Rule> rules = new ArrayList<>();
+        config.getRules().forEach(rules::add);
+
+        long[] estimates = new long[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            estimates[i] = planner.estimateNanos(rules.get(i), commits);
+        }
+
+        printRules(rules, estimates, out);
+        printSharedData(rules, size, out);
+        printCost(rules, estimates, size, commits, out);
+    }
+
+    private void printRules(List<Rule> rules, long[] estimates, PrintStream out) {
+
+        List<Integer> order = planner.evaluationOrder(rules);
+        int[] startsAt = new int[rules.size()];
+        for (int i = 0; i < order.size(); i++) {
+            startsAt[order.get(i)] = i + 1;
+        }
+
+        out.println(String.format("%4s %7s %6s %10s %-9s %-45s %s",
+                "rule", "stretch", "starts", "est ms", "source", "reads", "title"));
+
+        int stretch = 1;
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            out.println(String.format("%4d %7d %6d %10.2f %-9s %-45s %s%s",
+                    i + 1, stretch, startsAt[i],
+                    estimates[i] / NANOS_PER_MILLI,
+                    planner.isMeasured(rule) ? "measured" : "guessed",
+                    describe(rule.getDataNeeded()),
+                    rule.getTitle(),
+                    rule.stopOnFail() ? " (stop on fail)" : ""));
+            if (rule.stopOnFail()) {
+                stretch++;
+            }
+        }
+    }
+
+    private static String describe(Set<RuleData> data) {
+        return data.isEmpty() ? "-" : data.stream().map(RuleData::getDescription).collect(Collectors.joining(", "));
+    }
+
+    private void printSharedData(List<Rule> rules, RepositorySize size, PrintStream out) {
+
+        List<Integer> refs = new ArrayList<>();
+        List<Integer> messageSearches = new ArrayList<>();
+        List<Integer> ownWalks = new ArrayList<>();
+        List<Integer> workingTree = new ArrayList<>();
+        Map<String, List<Integer>> headPaths = new TreeMap<>();
+
+        for (int i = 0; i < rules.size(); i++) {
+
+            Rule rule = rules.get(i);
+            Set<RuleData> data = rule.getDataNeeded();
+
+            if (data.contains(RuleData.REFS)) {
+                refs.add(i + 1);
+            }
+            if (rule.searchesAllCommitMessages()) {
+                messageSearches.add(i + 1);
+            } else if (data.contains(RuleData.FULL_HISTORY) || data.contains(RuleData.PATH_HISTORY)) {
+                ownWalks.add(i + 1);
+            }
+            if (data.contains(RuleData.HEAD_TREE)) {
+                headPaths.computeIfAbsent(rule.getPath(), k -> new ArrayList<>()).add(i + 1);
+            }
+            if (data.contains(RuleData.WORKING_TREE)) {
+                workingTree.add(i + 1);
+            }
+        }
+
+        out.println();
+        out.println("Shared data");
+        out.println("  Refs, read once: " + list(refs));
+
+        if (messageSearches.isEmpty()) {
+            out.println("  Commit message index: not needed");
+        } else if (planner.shouldBuildCommitIndex(rules, size)) {
+            out.println("  Commit message index, built by one walk of the full history: " + list(messageSearches));
+        } else {
+            out.println("  Commit message index: not built, too few searches or too small a repository to pay off");
+        }
+
+        out.println();
+        out.println("Fused walks");
+        if (messageSearches.size() > 1) {
+            out.println("  One walk of the full history, which later searches reuse without reading it again: " + list(messageSearches));
+        }
+        for (Map.Entry<String, List<Integer>> path : headPaths.entrySet()) {
+            if (path.getValue().size() > 1) {
+                out.println("  One lookup of " + path.getKey() + " in the HEAD tree: " + list(path.getValue()));
+            }
+        }
+        if (!ownWalks.isEmpty()) {
+            out.println("  Not fused, each walks the history on its own: " + list(ownWalks));
+        }
+        if (!workingTree.isEmpty()) {
+            out.println("  Not fused, each reads the working tree in turn: " + list(workingTree));
+        }
+    }
+
+    private static String list(List<Integer> rules) {
+        return rules.isEmpty() ? "none" : "rules " + rules.stream().map(String::valueOf).collect(Collectors.joining(", "));
+    }
+
+    private void printCost(List<Rule> rules, long[] estimates, RepositorySize size, long commits, PrintStream out) {
+
+        long inTurn = 0;
+        long inParallel = 0;
+
+        // with unlimited threads each stretch takes as long as its slowest rule, or all its ignored rules in turn
+        long slowest = 0;
+        long ignored = 0;
+        for (int i = 0; i < rules.size(); i++) {
+
+            inTurn += estimates[i];
+            if ("ignored".equals(rules.get(i).getRuleName())) {
+                ignored += estimates[i];
+            } else {
+                slowest = Math.max(slowest, estimates[i]);
+            }
+
+            if (rules.get(i).stopOnFail() || i == rules.size() - 1) {
+                inParallel += Math.max(slowest, ignored);
+                slowest = 0;
+                ignored = 0;
+            }
+        }
+
+        out.println();
+        out.println("Estimated cost");
+        if (size != null) {
+            out.println(String.format("  Repository: %d KB", size.getEstimatedCost() / 1024)
+                    + (commits >= 0 ? ", " + commits + " commits" : ""));
+        }
+        out.println(String.format("  Checking the rules in turn: %.2f ms", inTurn / NANOS_PER_MILLI));
+        out.println(String.format("  With enough --rule-threads: %.2f ms", inParallel / NANOS_PER_MILLI));
+    }
+}
@@ -0,0 +1,217 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Collects the cost of each rule that was checked and reports on them.
+ *
+ * For a single repository each rule is listed. When more than one repository was checked
+ * the rules are grouped by rule type with percentile latencies.
+ */
+class ProfileReport {
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final List<RuleProfile> profiles = new ArrayList<>();
+    private PackCache packCache;
+
+    synchronized void add(RuleProfile profile) {
+        profiles.add(profile);
+    }
+
+    /**
+     * @param packCache the pack cache to report on along with the rules, or null
+     */
+    void setPackCache(PackCache packCache) {
+        this.packCache = packCache;
+    }
+
+    synchronized List<RuleProfile> getProfiles() {
+        return new ArrayList<>(profiles);
+    }
+
+    /**
+     * Print the report as a table, most expensive first
+     * @param out where to print
+     */
+    void print(PrintStream out) {
+
+        List<RuleProfile> all = getProfiles();
+        long repositories = all.stream().map(RuleProfile::getRepositoryPath).distinct().count();
+
+        out.println();
+        if (repositories > 1) {
+            printAggregated(out, aggregateByRuleType(all));
+        } else {
+            printRules(out, all);
+        }
+
+        if (packCache != null) {
+            packCache.print(out);
+        }
+    }
+
+    private void printRules(PrintStream out, List<RuleProfile> all) {
+
+        all.sort(Comparator.comparingLong(RuleProfile::getWallNanos).reversed());
+
+        out.println(String.format("%10s %10s %9s %12s %9s %9s  %s",
+                "wall ms", "cpu ms", "objects", "bytes", "commits", "entries", "rule"));
+
+        for (RuleProfile p : all) {
+            out.println(String.format("%10.2f %10.2f %9d %12d %9d %9d  %s",
+                    p.getWallNanos() / NANOS_PER_MILLI,
+                    p.getCpuNanos() / NANOS_PER_MILLI,
+                    p.getObjectsOpened(),
+                    p.getBytesInflated(),
+                    p.getCommitsVisited(),
+                    p.getTreeEntriesVisited(),
+                    p.getTitle()));
+        }
+    }
+
+    private void printAggregated(PrintStream out, List<RuleTypeSummary> summaries) {
+
+        out.println(String.format("%-45s %6s %10s %10s %10s %10s %10s %12s",
+                "rule", "count", "total ms", "p50 ms", "p90 ms", "p99 ms", "cpu ms", "bytes"));
+
+        for (RuleTypeSummary s : summaries) {
+            out.println(String.format("%-45s %6d %10.2f %10.2f %10.2f %10.2f %10.2f %12d",
+                    s.ruleName, s.count,
+                    s.totalWallNanos / NANOS_PER_MILLI,
+                    s.p50WallNanos / NANOS_PER_MILLI,
+                    s.p90WallNanos / NANOS_PER_MILLI,
+                    s.p99WallNanos / NANOS_PER_MILLI,
+                    s.totalCpuNanos / NANOS_PER_MILLI,
+                    s.totalBytesInflated));
+        }
+    }
+
+    /**
+     * Write every measurement, plus the per rule type summary, as JSON
+     * @param file the file to write to
+     * @throws IOException if the file couldn't be written
+     */
+    void writeJson(File file) throws IOException {
+
+        List<RuleProfile> all = getProfiles();
+
+        JSONArray rules = new JSONArray();
+        for (RuleProfile p : all) {
+            rules.put(p.toJson());
+        }
+
+        JSONArray types = new JSONArray();
+        for (RuleTypeSummary s : aggregateByRuleType(all)) {
+            types.put(s.toJson());
+        }
+
+        JSONObject root = new JSONObject();
+        root.put("rules", rules);
+        root.put("rule-types", types);
+        if (packCache != null) {
+            root.put("pack-cache", packCache.toJson());
+        }
+
+        FileUtils.writeStringToFile(file, root.toString(2), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Group the measurements by rule type, most expensive in total first
+     * @param all the measurements
+     * @return a summary for each rule type
+     */
+    static List<RuleTypeSummary> aggregateByRuleType(List<RuleProfile> all) {
+
+        Map<String, List<RuleProfile>> byType = new LinkedHashMap<>();
+        for (RuleProfile p : all) {
+            byType.computeIfAbsent(p.getRuleName(), k -> new ArrayList<>()).add(p);
+        }
+
+        List<RuleTypeSummary> summaries = new ArrayList<>();
+        for (Map.Entry<String, List<RuleProfile>> entry : byType.entrySet()) {
+            summaries.add(new RuleTypeSummary(entry.getKey(), entry.getValue()));
+        }
+
+        summaries.sort(Comparator.comparingLong((RuleTypeSummary s) -> s.totalWallNanos).reversed());
+        return summaries;
+    }
+
+    /**
+     * Get a percentile using the nearest-rank method
+     * @param sorted the values in ascending order
+     * @param percentile between 0 and 100
+     * @return the value at that percentile or zero if there are no values
+     */
+    static long percentile(long[] sorted, double percentile) {
+
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(percentile / 100d * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /**
+     * The totals and latency distribution for a type of rule.
+     */
+    static class RuleTypeSummary {
+
+        final String ruleName;
+        final int count;
+        final long totalWallNanos;
+        final long totalCpuNanos;
+        final long totalObjectsOpened;
+        final long totalBytesInflated;
+        final long totalCommitsVisited;
+        final long totalTreeEntriesVisited;
+        final long p50WallNanos;
+        final long p90WallNanos;
+        final long p99WallNanos;
+        final long maxWallNanos;
+
+        RuleTypeSummary(String ruleName, List<RuleProfile> profiles) {
+
+            this.ruleName = ruleName;
+            this.count = profiles.size();
+            this.totalWallNanos = profiles.stream().mapToLong(RuleProfile::getWallNanos).sum();
+            this.totalCpuNanos = profiles.stream().mapToLong(RuleProfile::getCpuNanos).sum();
+            this.totalObjectsOpened = profiles.stream().mapToLong(RuleProfile::getObjectsOpened).sum();
+            this.totalBytesInflated = profiles.stream().mapToLong(RuleProfile::getBytesInflated).sum();
+            this.totalCommitsVisited = profiles.stream().mapToLong(RuleProfile::getCommitsVisited).sum();
+            this.totalTreeEntriesVisited = profiles.stream().mapToLong(RuleProfile::getTreeEntriesVisited).sum();
+
+            long[] wall = profiles.stream().mapToLong(RuleProfile::getWallNanos).sorted().toArray();
+            this.p50WallNanos = percentile(wall, 50);
+            this.p90WallNanos = percentile(wall, 90);
+            this.p99WallNanos = percentile(wall, 99);
+            this.maxWallNanos = wall.length == 0 ? 0 : wall[wall.length - 1];
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("rule", ruleName);
+            json.put("count", count);
+            json.put("total-wall-ns", totalWallNanos);
+            json.put("total-cpu-ns", totalCpuNanos);
+            json.put("objects-opened", totalObjectsOpened);
+            json.put("bytes-inflated", totalBytesInflated);
+            json.put("commits-visited", totalCommitsVisited);
+            json.put("tree-entries-visited", totalTreeEntriesVisited);
+            json.put("p50-wall-ns", p50WallNanos);
+            json.put("p90-wall-ns", p90WallNanos);
+            json.put("p99-wall-ns", p99WallNanos);
+            json.put("max-wall-ns", maxWallNanos);
+            return json;
+        }
+    }
+}
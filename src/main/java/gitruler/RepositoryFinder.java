@@ -0,0 +1,187 @@
+package gitruler;
+
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.util.FS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Finds the repositories anywhere under a folder, walking its sub-folders in parallel.
+ *
+ * A folder is a repository if it has a .git folder, a .git file (a submodule or worktree checked out on its
+ * own) or is a bare repository. Repositories aren't looked inside, and neither are hidden folders, symbolic
+ * links or folders that are known to be big and never hold submissions, such as node_modules. Repositories
+ * are passed on as soon as they are found, so that grading can start while the rest of the tree is walked.
+ */
+class RepositoryFinder {
+
+    /** Folders that hold dependencies or build output rather than work to be graded */
+    private static final Set<String> SKIPPED_FOLDERS = new HashSet<>(Arrays.asList(
+            "node_modules", "bower_components", "__pycache__", "venv", "target"));
+
+    private static final String GITDIR_PREFIX = "gitdir:";
+
+    private final int threads;
+
+    /**
+     * @param threads how many folders to list at once
+     */
+    RepositoryFinder(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Find the repositories under a folder, not counting the folder itself
+     * @param root the folder to look in
+     * @param found told about each repository as it is found, from any of the threads walking the tree
+     * @return all the repositories found, in path order
+     * @throws IOException if the folder couldn't be listed. Sub-folders that can't be listed are passed over.
+     */
+    List<File> find(File root, Consumer<File> found) throws IOException {
+
+        List<Path> children = list(root.toPath());
+
+        ConcurrentLinkedQueue<File> repositories = new ConcurrentLinkedQueue<>();
+        Consumer<File> collect = repository -> {
+            repositories.add(repository);
+            found.accept(repository);
+        };
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Visit> visits = new ArrayList<>();
+            for (Path child : children) {
+                visits.add(new Visit(child, collect));
+            }
+            pool.invoke(new RecursiveAction() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(visits);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+
+        List<File> sorted = new ArrayList<>(repositories);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static List<Path> list(Path folder) throws IOException {
+
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path child : stream) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    children.add(child);
+                }
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Look at one folder, then at each of its sub-folders in parallel if it isn't a repository
+     */
+    private static class Visit extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+        private final Consumer<File> found;
+
+        Visit(Path folder, Consumer<File> found) {
+            this.folder = folder;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+
+            File file = folder.toFile();
+            if (isRepository(file)) {
+                found.accept(file);
+                return;
+            }
+
+            String name = folder.getFileName().toString();
+            if (name.startsWith(".") || SKIPPED_FOLDERS.contains(name)) {
+                return;
+            }
+
+            List<Path> children;
+            try {
+                children = list(folder);
+            } catch (IOException | SecurityException e) {
+                return;
+            }
+
+            List<Visit> visits = new ArrayList<>(children.size());
+            for (Path child : children) {
+                visits.add(new Visit(child, found));
+            }
+            invokeAll(visits);
+        }
+    }
+
+    /**
+     * Check whether a folder is a repository: a working tree with a .git folder or file, or a bare repository
+     * @param folder the folder
+     * @return true if it is a repository
+     */
+    static boolean isRepository(File folder) {
+        return new File(folder, ".git").exists() || isBareRepository(folder);
+    }
+
+    /**
+     * Find the git folder of a repository, the same way {@link GitInteractor} opens it
+     * @param folder the repository's folder
+     * @return the folder itself for a bare repository, where its .git file points for a submodule, and its
+     * .git folder otherwise, whether or not that exists
+     */
+    static File findGitDirectory(File folder) {
+
+        File dotGit = new File(folder, ".git");
+        if (dotGit.isFile()) {
+            try {
+                String contents = new String(Files.readAllBytes(dotGit.toPath()), StandardCharsets.UTF_8).trim();
+                if (contents.startsWith(GITDIR_PREFIX)) {
+                    File gitDir = new File(contents.substring(GITDIR_PREFIX.length()).trim());
+                    return gitDir.isAbsolute() ? gitDir : new File(folder, gitDir.getPath());
+                }
+            } catch (IOException ignored) {
+                // opening it will fail too
+            }
+            return dotGit;
+        }
+
+        if (!dotGit.exists() && isBareRepository(folder)) {
+            return folder;
+        }
+        return dotGit;
+    }
+
+    /**
+     * Check whether a folder is the git folder of a repository without a working tree
+     * @param folder the folder
+     * @return true if it has the HEAD, objects and refs of a repository
+     */
+    static boolean isBareRepository(File folder) {
+        return new File(folder, "HEAD").isFile() && RepositoryCache.FileKey.isGitRepository(folder, FS.DETECTED);
+    }
+}
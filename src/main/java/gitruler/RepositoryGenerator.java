@@ -0,0 +1,451 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.*;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Generates synthetic student repositories for benchmarking and load testing.
+ *
+ * Every student repository starts with the same starter history, so the starter commits have the
+ * same ids in each, as if the students had all cloned one starter repository. Each student then adds
+ * their own commits, branches (some merged back), tags and optionally large build outputs.
+ *
+ * Objects are written straight through an ObjectInserter without checking anything out, and all
+ * randomness and timestamps come from the seed, so the same settings always produce the same repositories.
+ * Only the .gitignore is written to the working folder so that ignore rules can be checked.
+ */
+class RepositoryGenerator {
+
+    static final String STARTER_MESSAGE = "Starter commit ";
+    static final String STUDENT_MESSAGE = "Student commit ";
+    static final String BRANCH_PREFIX = "feature-";
+    static final String TAG_PREFIX = "exercise-";
+    static final String README = "README.md";
+    static final String LARGE_BLOB_FOLDER = "build/";
+    static final String LARGE_BLOB_MARKER = "end of build output";
+    static final String GITIGNORE_CONTENTS = "*.class\nbuild/\n";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long START_TIME = 1530000000000L;
+    private static final String[] FOLDERS = {"src/", "src/exercises/", "docs/", ""};
+
+    private long seed = 1;
+    private int students = 10;
+    private int starterCommits = 5;
+    private int commitsPerStudent = 20;
+    private int branchesPerStudent = 2;
+    private int commitsPerBranch = 3;
+    private double mergeProbability = 0.75;
+    private int tagsPerStudent = 1;
+    private int largeBlobsPerStudent = 0;
+    private int largeBlobSize = 1024 * 1024;
+    private int treeWidth = 20;
+    private boolean gitignore = true;
+    private boolean packed = true;
+
+    /**
+     * Generate a cohort of student repositories and a rules file that matches them
+     * @param outputFolder where to put them. Each student gets a sub-folder and the rules are written to gitrules.json
+     * @return the folders of the repositories that were generated
+     * @throws IOException if the repositories couldn't be written
+     */
+    List<File> generateCohort(File outputFolder) throws IOException {
+
+        List<File> folders = new ArrayList<>();
+        for (int i = 0; i < students; i++) {
+            File folder = new File(outputFolder, studentName(i));
+            generateStudent(folder, i).close();
+            folders.add(folder);
+        }
+
+        FileUtils.writeStringToFile(new File(outputFolder, "gitrules.json"), createConfig().toString(2), UTF8);
+        return folders;
+    }
+
+    /**
+     * Generate one student's repository
+     * @param folder the working folder. The repository is created in its .git folder
+     * @param studentIndex which student this is, which decides what they do on top of the starter
+     * @return the opened repository
+     * @throws IOException if the repository couldn't be written
+     */
+    Repository generateStudent(File folder, int studentIndex) throws IOException {
+
+        Repository repo = new FileRepositoryBuilder().setGitDir(new File(folder, ".git")).build();
+        repo.create();
+
+        new StudentHistory(repo, studentIndex).write();
+
+        if (gitignore) {
+            FileUtils.writeStringToFile(new File(folder, ".gitignore"), GITIGNORE_CONTENTS, UTF8);
+        }
+        return repo;
+    }
+
+    static String studentName(int studentIndex) {
+        return String.format("student-%05d", studentIndex);
+    }
+
+    /**
+     * The path of one of the files that the starter creates and students edit
+     * @param fileIndex between zero and the tree width
+     * @return the path
+     */
+    static String filePath(int fileIndex) {
+        return FOLDERS[fileIndex % FOLDERS.length] + String.format("file-%05d.txt", fileIndex);
+    }
+
+    static String largeBlobPath(int blobIndex) {
+        return LARGE_BLOB_FOLDER + "output-" + blobIndex + ".bin";
+    }
+
+    /**
+     * Create a rules config that can be checked against the generated repositories.
+     * Whether the rules pass depends on what each student did, e.g. whether they merged their branches.
+     * @return the config as JSON
+     */
+    JSONObject createConfig() {
+
+        JSONArray rules = new JSONArray();
+        rules.put(rule("head-exists").put("stop-on-fail", true).put("score-if-correct", 1));
+        rules.put(rule("file-tracked-in-head").put("path", README).put("score-if-correct", 1));
+        rules.put(rule("file-contains-in-head").put("path", README).put("contents", "exercise").put("score-if-correct", 1));
+        rules.put(rule("file-untracked-in-head").put("path", largeBlobPath(0)).put("score-if-correct", 1));
+        rules.put(rule("any-commit-message-for-file-contains").put("path", README).put("contents", STARTER_MESSAGE).put("ignore-case", true).put("score-if-correct", 1));
+        rules.put(rule("last-commit-message-for-file-contains").put("path", filePath(0)).put("contents", STUDENT_MESSAGE).put("score-if-correct", 1));
+        rules.put(rule("any-commit-message-contains").put("contents", STUDENT_MESSAGE + (commitsPerStudent - 1) + ":").put("ignore-case", true).put("score-if-correct", 1));
+        rules.put(rule("at-least-a-number-of-commits").put("number", starterCommits + commitsPerStudent / 2).put("score-if-correct", 1));
+        rules.put(rule("branch-exists").put("branch", BRANCH_PREFIX + 0).put("score-if-correct", 1));
+        rules.put(rule("file-tracked-in-branch").put("branch", BRANCH_PREFIX + 0).put("path", BRANCH_PREFIX + 0 + ".txt").put("score-if-correct", 1));
+        rules.put(rule("commit-with-message-was-made-on-branch").put("branch", BRANCH_PREFIX + 0).put("contents", BRANCH_PREFIX + 0 + " commit 0").put("score-if-correct", 1));
+        rules.put(rule("commit-with-message-was-merged-into-branch").put("branch", Constants.MASTER).put("contents", BRANCH_PREFIX + 0 + " commit " + (commitsPerBranch - 1)).put("score-if-correct", 1));
+        rules.put(rule("tag-exists").put("tag", TAG_PREFIX + 0).put("score-if-correct", 1));
+        if (gitignore) {
+            rules.put(rule("ignored").put("path", "Main.class").put("score-if-correct", 1));
+        }
+
+        JSONObject config = new JSONObject();
+        config.put("setup-files", new JSONArray());
+        config.put("rules", rules);
+        return config;
+    }
+
+    private static JSONObject rule(String name) {
+        return new JSONObject().put("rule", name);
+    }
+
+    /**
+     * Writes the history of one student repository
+     */
+    private class StudentHistory {
+
+        private final Repository repo;
+        private final ObjectInserter inserter;
+        private final Set<ObjectId> written = new HashSet<>();
+        private final Random random;
+        private final int studentIndex;
+        private SortedMap<String, ObjectId> files = new TreeMap<>();
+        private int time;
+
+        StudentHistory(Repository repo, int studentIndex) {
+            this.repo = repo;
+            this.studentIndex = studentIndex;
+            this.random = new Random(seed * 1_000_003L + studentIndex);
+            this.inserter = packed
+                    ? ((FileRepository) repo).getObjectDatabase().newPackInserter()
+                    : repo.newObjectInserter();
+        }
+
+        void write() throws IOException {
+
+            ObjectId head = writeStarter();
+            List<ObjectId> mainCommits = new ArrayList<>();
+
+            // Decide where each branch forks from and is merged back
+            int[] forkAt = new int[branchesPerStudent];
+            int[] mergeAt = new int[branchesPerStudent];
+            ObjectId[] branchTips = new ObjectId[branchesPerStudent];
+            List<SortedMap<String, ObjectId>> branchChanges = new ArrayList<>();
+            for (int b = 0; b < branchesPerStudent; b++) {
+                forkAt[b] = random.nextInt(Math.max(1, commitsPerStudent));
+                mergeAt[b] = random.nextDouble() < mergeProbability
+                        ? forkAt[b] + 1 + random.nextInt(Math.max(1, commitsPerStudent - forkAt[b]))
+                        : -1;
+                branchChanges.add(new TreeMap<>());
+            }
+
+            int largeBlobsLeft = largeBlobsPerStudent;
+            for (int i = 0; i <= commitsPerStudent; i++) {
+
+                for (int b = 0; b < branchesPerStudent; b++) {
+                    if (forkAt[b] == i) {
+                        branchTips[b] = writeBranch(b, head, branchChanges.get(b));
+                    }
+                    if (mergeAt[b] == i) {
+                        files.putAll(branchChanges.get(b));
+                        head = commit("Merge branch '" + BRANCH_PREFIX + b + "'", head, branchTips[b]);
+                        mainCommits.add(head);
+                    }
+                }
+
+                if (i == commitsPerStudent) {
+                    break;
+                }
+
+                // The first commit always changes the first file so that there's a student commit to look for
+                String path = filePath(i == 0 ? 0 : random.nextInt(treeWidth));
+                if (largeBlobsLeft > 0 && random.nextInt(commitsPerStudent - i) < largeBlobsLeft) {
+                    path = largeBlobPath(largeBlobsPerStudent - largeBlobsLeft--);
+                    files.put(path, blob(randomText(largeBlobSize - LARGE_BLOB_MARKER.length()) + LARGE_BLOB_MARKER));
+                } else {
+                    files.put(path, blob(studentName(studentIndex) + " changed " + path + " in commit " + i + "\n"));
+                }
+
+                head = commit(STUDENT_MESSAGE + i + ": update " + path, head);
+                mainCommits.add(head);
+            }
+
+            Map<String, ObjectId> refs = new LinkedHashMap<>();
+            refs.put(Constants.R_HEADS + Constants.MASTER, head);
+            for (int b = 0; b < branchesPerStudent; b++) {
+                refs.put(Constants.R_HEADS + BRANCH_PREFIX + b, branchTips[b]);
+            }
+
+            for (int t = 0; t < tagsPerStudent && !mainCommits.isEmpty(); t++) {
+                ObjectId tagged = mainCommits.get(random.nextInt(mainCommits.size()));
+                if (t % 2 == 0) {
+                    refs.put(Constants.R_TAGS + TAG_PREFIX + t, tagged);
+                } else {
+                    refs.put(Constants.R_TAGS + TAG_PREFIX + t, annotatedTag(TAG_PREFIX + t, tagged));
+                }
+            }
+
+            // The objects have to be in the repository before refs can point at them
+            inserter.flush();
+            inserter.close();
+
+            for (Map.Entry<String, ObjectId> ref : refs.entrySet()) {
+                setRef(ref.getKey(), ref.getValue());
+            }
+        }
+
+        /**
+         * Write the starter history, which doesn't depend on the student so is identical in every repository
+         * @return the last starter commit
+         * @throws IOException if it couldn't be written
+         */
+        private ObjectId writeStarter() throws IOException {
+
+            Random starterRandom = new Random(seed);
+            ObjectId head = null;
+
+            files.put(README, blob("# Starter\n\nComplete each exercise in this repository.\n"));
+            if (gitignore) {
+                files.put(".gitignore", blob(GITIGNORE_CONTENTS));
+            }
+
+            for (int i = 0; i < treeWidth; i++) {
+                files.put(filePath(i), blob("starter contents of " + filePath(i) + "\n"));
+            }
+
+            for (int i = 0; i < starterCommits; i++) {
+                if (i > 0) {
+                    String path = filePath(starterRandom.nextInt(treeWidth));
+                    files.put(path, blob("starter contents of " + path + " version " + i + "\n"));
+                }
+                head = commit(STARTER_MESSAGE + i, head);
+            }
+            return head;
+        }
+
+        private ObjectId writeBranch(int branchIndex, ObjectId forkPoint, SortedMap<String, ObjectId> changes) throws IOException {
+
+            SortedMap<String, ObjectId> mainFiles = files;
+            files = new TreeMap<>(mainFiles);
+
+            ObjectId tip = forkPoint;
+            String path = BRANCH_PREFIX + branchIndex + ".txt";
+            for (int c = 0; c < commitsPerBranch; c++) {
+                ObjectId id = blob("work on " + BRANCH_PREFIX + branchIndex + " version " + c + "\n");
+                files.put(path, id);
+                changes.put(path, id);
+                tip = commit(BRANCH_PREFIX + branchIndex + " commit " + c, tip);
+            }
+
+            files = mainFiles;
+            return tip;
+        }
+
+        private String randomText(int length) {
+            StringBuilder text = new StringBuilder(Math.max(0, length));
+            for (int i = 0; i < length; i++) {
+                text.append(i % 80 == 79 ? '\n' : (char) ('a' + random.nextInt(26)));
+            }
+            return text.toString();
+        }
+
+        private ObjectId blob(String contents) throws IOException {
+            return insert(Constants.OBJ_BLOB, contents.getBytes(UTF8));
+        }
+
+        /**
+         * Insert an object unless it has already been written to this repository
+         */
+        private ObjectId insert(int type, byte[] data) throws IOException {
+            ObjectId id = inserter.idFor(type, data);
+            if (written.add(id)) {
+                inserter.insert(type, data);
+            }
+            return id;
+        }
+
+        private ObjectId commit(String message, ObjectId... parents) throws IOException {
+
+            PersonIdent author = nextIdent();
+
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(tree(files));
+            commit.setAuthor(author);
+            commit.setCommitter(author);
+            commit.setMessage(message + "\n");
+            for (ObjectId parent : parents) {
+                if (parent != null) {
+                    commit.addParentId(parent);
+                }
+            }
+            return insert(Constants.OBJ_COMMIT, commit.build());
+        }
+
+        private ObjectId annotatedTag(String name, ObjectId commit) throws IOException {
+            TagBuilder tag = new TagBuilder();
+            tag.setTag(name);
+            tag.setObjectId(commit, Constants.OBJ_COMMIT);
+            tag.setTagger(nextIdent());
+            tag.setMessage("Finished " + name + "\n");
+            return insert(Constants.OBJ_TAG, tag.build());
+        }
+
+        /**
+         * The starter's commits are made by the teacher at the same times in every repository
+         */
+        private PersonIdent nextIdent() {
+            Date when = new Date(START_TIME + 60000L * time++);
+            if (time <= starterCommits) {
+                return new PersonIdent("Teacher", "teacher@example.com", when, TimeZone.getTimeZone("UTC"));
+            }
+            return new PersonIdent(studentName(studentIndex), studentName(studentIndex) + "@example.com", when, TimeZone.getTimeZone("UTC"));
+        }
+
+        /**
+         * Write the trees for a set of paths
+         * @param paths the paths relative to this tree, e.g. src/a.txt
+         * @return the id of the tree
+         */
+        private ObjectId tree(SortedMap<String, ObjectId> paths) throws IOException {
+
+            // Git orders folders as if their names ended with a slash
+            SortedMap<String, ObjectId> entries = new TreeMap<>();
+            Map<String, SortedMap<String, ObjectId>> folders = new HashMap<>();
+
+            for (Map.Entry<String, ObjectId> path : paths.entrySet()) {
+                int slash = path.getKey().indexOf('/');
+                if (slash < 0) {
+                    entries.put(path.getKey(), path.getValue());
+                } else {
+                    folders.computeIfAbsent(path.getKey().substring(0, slash + 1), k -> new TreeMap<>())
+                            .put(path.getKey().substring(slash + 1), path.getValue());
+                }
+            }
+
+            for (Map.Entry<String, SortedMap<String, ObjectId>> folder : folders.entrySet()) {
+                entries.put(folder.getKey(), tree(folder.getValue()));
+            }
+
+            TreeFormatter formatter = new TreeFormatter();
+            for (Map.Entry<String, ObjectId> entry : entries.entrySet()) {
+                String name = entry.getKey();
+                if (name.endsWith("/")) {
+                    formatter.append(name.substring(0, name.length() - 1), FileMode.TREE, entry.getValue());
+                } else {
+                    formatter.append(name, FileMode.REGULAR_FILE, entry.getValue());
+                }
+            }
+            return insert(Constants.OBJ_TREE, formatter.toByteArray());
+        }
+
+        private void setRef(String name, ObjectId id) throws IOException {
+            RefUpdate update = repo.updateRef(name);
+            update.setNewObjectId(id);
+            update.setForceUpdate(true);
+            RefUpdate.Result result = update.update();
+            if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED) {
+                throw new IOException("Could not create " + name + ": " + result);
+            }
+        }
+    }
+
+    void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    void setStudents(int students) {
+        this.students = students;
+    }
+
+    void setStarterCommits(int starterCommits) {
+        this.starterCommits = Math.max(1, starterCommits);
+    }
+
+    void setCommitsPerStudent(int commitsPerStudent) {
+        this.commitsPerStudent = commitsPerStudent;
+    }
+
+    void setBranchesPerStudent(int branchesPerStudent) {
+        this.branchesPerStudent = branchesPerStudent;
+    }
+
+    void setCommitsPerBranch(int commitsPerBranch) {
+        this.commitsPerBranch = Math.max(1, commitsPerBranch);
+    }
+
+    void setMergeProbability(double mergeProbability) {
+        this.mergeProbability = mergeProbability;
+    }
+
+    void setTagsPerStudent(int tagsPerStudent) {
+        this.tagsPerStudent = tagsPerStudent;
+    }
+
+    void setLargeBlobsPerStudent(int largeBlobsPerStudent) {
+        this.largeBlobsPerStudent = largeBlobsPerStudent;
+    }
+
+    void setLargeBlobSize(int largeBlobSize) {
+        this.largeBlobSize = Math.max(LARGE_BLOB_MARKER.length(), largeBlobSize);
+    }
+
+    void setTreeWidth(int treeWidth) {
+        this.treeWidth = Math.max(1, treeWidth);
+    }
+
+    void setGitignore(boolean gitignore) {
+        this.gitignore = gitignore;
+    }
+
+    /**
+     * Write each repository's objects to a single pack, like a clone, rather than as loose objects
+     * @param packed true for a pack
+     */
+    void setPacked(boolean packed) {
+        this.packed = packed;
+    }
+}
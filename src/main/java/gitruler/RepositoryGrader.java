@@ -0,0 +1,137 @@
+package gitruler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+
+/**
+ * Checks the rules in a config against a repository.
+ */
+class RepositoryGrader {
+
+    private final GitRulerConfig config;
+    private EvaluationPlanner planner = new EvaluationPlanner(null);
+    private ParallelRuleEvaluator parallelEvaluator;
+    private boolean speculative;
+    private long repositoryTimeoutMillis;
+
+    RepositoryGrader(GitRulerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Check the rules of each repository on several threads at once
+     * @param ruleThreads how many threads, or 1 to check them in turn on the calling thread
+     */
+    void setRuleThreads(int ruleThreads) {
+        // async mode so that the rules of a stretch start in the order they were planned
+        parallelEvaluator = ruleThreads > 1 ? new ParallelRuleEvaluator(new ForkJoinPool(ruleThreads,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true)) : null;
+        setPlanner(planner);
+        setSpeculative(speculative);
+    }
+
+    /**
+     * @param planner decides the order rules are checked in and whether to index commit messages
+     */
+    void setPlanner(EvaluationPlanner planner) {
+        this.planner = planner;
+        if (parallelEvaluator != null) {
+            parallelEvaluator.setPlanner(planner);
+        }
+    }
+
+    EvaluationPlanner getPlanner() {
+        return planner;
+    }
+
+    /**
+     * When checking rules on several threads, start the rules after a stop-on-fail rule before it has passed,
+     * throwing their results away if it fails
+     * @param speculative whether to start them early
+     */
+    void setSpeculative(boolean speculative) {
+        this.speculative = speculative;
+        if (parallelEvaluator != null) {
+            parallelEvaluator.setSpeculative(speculative);
+        }
+    }
+
+    /**
+     * Limit how long indexing and checking the rules of one repository can take. Rules still running when
+     * it runs out are stopped and reported as timed out, as are any that start afterwards.
+     * @param repositoryTimeoutMillis the limit in milliseconds, or zero for none
+     */
+    void setRepositoryTimeoutMillis(long repositoryTimeoutMillis) {
+        this.repositoryTimeoutMillis = repositoryTimeoutMillis;
+    }
+
+    long getRepositoryTimeoutMillis() {
+        return repositoryTimeoutMillis;
+    }
+
+    GitRulerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Check each of the rules in turn, skipping the rest if a critical rule fails
+     * @param git the repository to check
+     * @return the results
+     */
+    RepositoryResult grade(GitInteractor git) {
+        return grade(git, null);
+    }
+
+    /**
+     * Check each of the rules in turn, skipping the rest if a critical rule fails
+     * @param git the repository to check
+     * @param ruleChecked if not null, called with each rule as soon as it has been checked. The result is null if it was skipped.
+     * @return the results
+     */
+    RepositoryResult grade(GitInteractor git, BiConsumer<Rule, RuleResult> ruleChecked) {
+
+        long start = System.nanoTime();
+        RepositoryResult repositoryResult = new RepositoryResult(git.getRepositoryPath());
+        git.startTimeBudget(repositoryTimeoutMillis);
+
+        if (parallelEvaluator != null) {
+            parallelEvaluator.evaluate(git, config.getRules(), ruleChecked, repositoryResult);
+        } else {
+            checkInTurn(git, config.getRules(), ruleChecked, repositoryResult);
+        }
+
+        repositoryResult.setGradingNanos(System.nanoTime() - start);
+        return repositoryResult;
+    }
+
+    /**
+     * Check each rule in turn, skipping the rest if a critical rule fails
+     * @param git the repository to check
+     * @param rules the rules in config order
+     * @param ruleChecked if not null, called with each rule as soon as it has been checked. The result is null if it was skipped.
+     * @param repositoryResult where the results are added
+     */
+    static void checkInTurn(GitInteractor git, Iterable<Rule> rules, BiConsumer<Rule, RuleResult> ruleChecked, RepositoryResult repositoryResult) {
+
+        boolean skipRemainingRules = false;
+        for (Rule r: rules){
+
+            RuleResult result = null;
+
+            if (!skipRemainingRules) {
+                result = git.checkRule(r);
+            }
+
+            if (ruleChecked != null) {
+                ruleChecked.accept(r, result);
+            }
+
+            repositoryResult.add(r, result);
+
+            if (!skipRemainingRules && !result.hasPassed() && r.stopOnFail()){
+                skipRemainingRules = true;
+                repositoryResult.setSkippedRules();
+            }
+        }
+    }
+}
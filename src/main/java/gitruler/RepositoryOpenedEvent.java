@@ -0,0 +1,23 @@
+package gitruler;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for opening a repository to be checked.
+ */
+@Name("gitruler.RepositoryOpened")
+@Label("Repository Opened")
+@Category("GitRuler")
+@StackTrace(false)
+class RepositoryOpenedEvent extends Event {
+
+    @Label("Repository")
+    String repository;
+
+    @Label("Pack Files")
+    int packFiles;
+
+    @Label("Pack Size")
+    @DataAmount
+    long packBytes;
+}
@@ -0,0 +1,90 @@
+package gitruler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of checking every rule in a config against one repository.
+ */
+class RepositoryResult {
+
+    private final String repositoryPath;
+    private final List<Rule> rules = new ArrayList<>();
+    private final List<RuleResult> results = new ArrayList<>();
+    private double totalScore;
+    private boolean skippedRules;
+    private long gradingNanos;
+
+    RepositoryResult(String repositoryPath) {
+        this.repositoryPath = repositoryPath;
+    }
+
+    /**
+     * Record the result of a rule
+     * @param rule the rule that was checked
+     * @param result the result, or null if the rule was skipped
+     */
+    void add(Rule rule, RuleResult result) {
+
+        rules.add(rule);
+        results.add(result);
+
+        if (result != null && result.hasPassed()) {
+            totalScore += rule.getScoreIfCorrect();
+        }
+    }
+
+    /**
+     * Record that a critical rule failed so the remaining rules were skipped
+     */
+    void setSkippedRules() {
+        this.skippedRules = true;
+    }
+
+    String getRepositoryPath() {
+        return repositoryPath;
+    }
+
+    /**
+     * Get the last part of the repository's path, which is used to identify it in summaries
+     * @return the name of the repository folder
+     */
+    String getRepositoryName() {
+
+        String path = repositoryPath;
+        while (path.length() > 1 && (path.endsWith("/") || path.endsWith("\\"))) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        int lastSeparator = Math.max(path.lastIndexOf("/"), path.lastIndexOf("\\"));
+        return lastSeparator > 0 ? path.substring(lastSeparator + 1) : path;
+    }
+
+    List<Rule> getRules() {
+        return rules;
+    }
+
+    List<RuleResult> getResults() {
+        return results;
+    }
+
+    double getTotalScore() {
+        return totalScore;
+    }
+
+    boolean hasSkippedRules() {
+        return skippedRules;
+    }
+
+    /**
+     * Get how long it took to check all the rules
+     * @return the time in nanoseconds
+     */
+    long getGradingNanos() {
+        return gradingNanos;
+    }
+
+    void setGradingNanos(long gradingNanos) {
+        this.gradingNanos = gradingNanos;
+    }
+}
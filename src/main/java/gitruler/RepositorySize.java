@@ -0,0 +1,120 @@
+package gitruler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * A cheap estimate of how expensive a repository will be to grade, made by looking at the sizes of its
+ * files rather than opening it. Used to grade the biggest repositories first and to limit how many huge
+ * ones are held open at once.
+ */
+class RepositorySize {
+
+    /** Loose objects are compressed one at a time and tend to be small, so count each as a few kilobytes */
+    static final long BYTES_PER_LOOSE_OBJECT = 4 * 1024;
+
+    /** Each ref is another starting point for the walks that search every commit */
+    static final long BYTES_PER_REF = 16 * 1024;
+
+    private final long packBytes;
+    private final long looseObjects;
+    private final long refs;
+
+    RepositorySize(long packBytes, long looseObjects, long refs) {
+        this.packBytes = packBytes;
+        this.looseObjects = looseObjects;
+        this.refs = refs;
+    }
+
+    /**
+     * Look at the files of a repository
+     * @param folder the working folder of the repository, or the repository itself if it is bare
+     * @return the size, which is zero for anything that couldn't be read
+     */
+    static RepositorySize estimate(File folder) {
+
+        File gitDir = RepositoryFinder.findGitDirectory(folder);
+        File objects = new File(gitDir, "objects");
+
+        long packBytes = 0;
+        File[] packs = new File(objects, "pack").listFiles((dir, name) -> name.endsWith(".pack"));
+        if (packs != null) {
+            for (File pack : packs) {
+                packBytes += pack.length();
+            }
+        }
+
+        long looseObjects = 0;
+        File[] fanOut = objects.listFiles((dir, name) -> name.length() == 2 && isHex(name));
+        if (fanOut != null) {
+            for (File directory : fanOut) {
+                String[] names = directory.list();
+                looseObjects += names == null ? 0 : names.length;
+            }
+        }
+
+        long refs = countFiles(new File(gitDir, "refs")) + countPackedRefs(new File(gitDir, "packed-refs"));
+
+        return new RepositorySize(packBytes, looseObjects, refs);
+    }
+
+    private static boolean isHex(String name) {
+        for (char c : name.toCharArray()) {
+            if (Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long countFiles(File directory) {
+
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return 0;
+        }
+
+        long count = 0;
+        for (File child : children) {
+            count += child.isDirectory() ? countFiles(child) : 1;
+        }
+        return count;
+    }
+
+    private static long countPackedRefs(File packedRefs) {
+
+        if (!packedRefs.isFile()) {
+            return 0;
+        }
+
+        // Lines starting with # are the header and lines starting with ^ are the peeled value of the tag above
+        try (BufferedReader reader = Files.newBufferedReader(packedRefs.toPath(), Charset.forName("UTF-8"))) {
+            return reader.lines().filter(line -> !line.isEmpty() && line.charAt(0) != '#' && line.charAt(0) != '^').count();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    long getPackBytes() {
+        return packBytes;
+    }
+
+    long getLooseObjects() {
+        return looseObjects;
+    }
+
+    long getRefs() {
+        return refs;
+    }
+
+    /**
+     * Combine the measurements into one number to compare repositories by
+     * @return roughly the number of bytes grading will read
+     */
+    long getEstimatedCost() {
+        return packBytes + looseObjects * BYTES_PER_LOOSE_OBJECT + refs * BYTES_PER_REF;
+    }
+}
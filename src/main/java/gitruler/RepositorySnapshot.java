@@ -0,0 +1,130 @@
+package gitruler;
+
+import org.eclipse.jgit.lib.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The state of a repository's refs at one moment, with the commit index and the path lookups made so far,
+ * shared by every thread checking rules against that repository.
+ *
+ * The refs, HEAD and branches are captured once and never change, so every rule sees the same repository.
+ * Path lookups are cached as they are made; as commits never change the answers don't either. The commit
+ * index may be evicted to free memory, after which message searches walk the history and get the same answers.
+ * Safe to use from many threads.
+ */
+final class RepositorySnapshot {
+
+    /** Where a short ref name is looked for, in the same order as git rev-parse */
+    private static final String[] SEARCH_PATH = {
+            "", Constants.R_REFS, Constants.R_TAGS, Constants.R_HEADS, Constants.R_REMOTES
+    };
+
+    private final Map<String, ObjectId> refs;
+    private final List<Ref> branches;
+    private final ObjectId head;
+    private final Map<String, ObjectId> paths = new ConcurrentHashMap<>();
+    private final AtomicReference<CommitIndex> commitIndex;
+
+    private RepositorySnapshot(Map<String, ObjectId> refs, List<Ref> branches, ObjectId head, CommitIndex commitIndex) {
+        this.refs = Collections.unmodifiableMap(refs);
+        this.branches = Collections.unmodifiableList(branches);
+        this.head = head;
+        this.commitIndex = new AtomicReference<>(commitIndex);
+    }
+
+    /**
+     * Read the refs of a repository
+     * @param repo the repository
+     * @param commitIndex the commit index to share, or null if there isn't one
+     * @return the snapshot
+     * @throws IOException if the refs couldn't be read
+     */
+    static RepositorySnapshot capture(Repository repo, CommitIndex commitIndex) throws IOException {
+
+        Map<String, ObjectId> refs = new HashMap<>();
+        for (Ref ref : repo.getRefDatabase().getRefs()) {
+            if (ref.getObjectId() != null) {
+                refs.put(ref.getName(), ref.getObjectId());
+            }
+        }
+
+        // the same as listing the branches: sorted by name, with HEAD when it is detached
+        List<Ref> branches = new ArrayList<>(repo.getRefDatabase().getRefsByPrefix(Constants.R_HEADS));
+        Ref headRef = repo.exactRef(Constants.HEAD);
+        if (headRef != null && headRef.getLeaf().getName().equals(Constants.HEAD)) {
+            branches.add(headRef);
+        }
+        branches.sort(Comparator.comparing(Ref::getName));
+
+        return new RepositorySnapshot(refs, branches, repo.resolve(Constants.HEAD), commitIndex);
+    }
+
+    /**
+     * Resolve a revision, using the captured refs for ref names
+     * @param repo the repository, for revisions that aren't ref names
+     * @param revision a ref name, short or full, or any other revision git understands
+     * @return the object id or null if it doesn't exist
+     * @throws IOException Git exception
+     */
+    ObjectId resolve(Repository repo, String revision) throws IOException {
+
+        if (Constants.HEAD.equals(revision)) {
+            return head;
+        }
+
+        for (String prefix : SEARCH_PATH) {
+            ObjectId id = refs.get(prefix + revision);
+            if (id != null) {
+                return id;
+            }
+        }
+
+        // e.g. a commit id or HEAD~2
+        return repo.resolve(revision);
+    }
+
+    List<Ref> getBranches() {
+        return branches;
+    }
+
+    /**
+     * Find the object at a path in a commit, remembering the answer for every thread
+     * @param commit the commit
+     * @param path the path
+     * @param finder looks for the path if it hasn't been looked for in this commit before
+     * @return the id of the object or null if there is nothing at that path
+     * @throws IOException Git exception
+     */
+    ObjectId findPath(AnyObjectId commit, String path, GradingSession.PathFinder finder) throws IOException {
+
+        String key = commit.name() + ':' + path;
+        ObjectId id = paths.get(key);
+
+        if (id == null) {
+            // two threads may both look; they find the same thing
+            id = finder.find();
+            paths.put(key, id == null ? ObjectId.zeroId() : id);
+        }
+
+        return ObjectId.zeroId().equals(id) ? null : id;
+    }
+
+    /**
+     * @return the commit index, or null if there isn't one or it has been evicted
+     */
+    CommitIndex getCommitIndex() {
+        return commitIndex.get();
+    }
+
+    /**
+     * Stop sharing the commit index so that its memory can be freed
+     * @return the index that was evicted, or null if another thread already evicted it
+     */
+    CommitIndex evictCommitIndex() {
+        return commitIndex.getAndSet(null);
+    }
+}
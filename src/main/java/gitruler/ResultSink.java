@@ -0,0 +1,28 @@
+package gitruler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Somewhere machine readable to write the results of a batch run to, as each repository is finished with.
+ * Nothing is held on to between repositories, so a run over thousands of them writes as it goes and the
+ * file can be read while the run is still going.
+ */
+interface ResultSink extends Closeable {
+
+    /**
+     * Write the results of a repository
+     * @param result the results of its rules
+     * @throws IOException if they couldn't be written
+     */
+    void repositoryGraded(RepositoryResult result) throws IOException;
+
+    /**
+     * Write that a repository couldn't be graded
+     * @param folder the repository's folder
+     * @param reason why it couldn't be graded
+     * @throws IOException if it couldn't be written
+     */
+    void repositoryFailed(File folder, String reason) throws IOException;
+}
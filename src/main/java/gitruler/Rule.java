@@ -1,6 +1,8 @@
 package gitruler;
 
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
 
 public class Rule {
 
@@ -113,6 +115,83 @@ public class Rule {
         return (String) details.get("rule");
     }
 
+    /**
+     * Does checking this rule search the messages of every commit on every ref?
+     * These are the rules a commit index speeds up.
+     * @return true if it does
+     */
+    boolean searchesAllCommitMessages() {
+
+        switch (getRuleName()){
+            case "any-commit-message-contains":
+            case "any-commit-message-for-file-contains":
+                return !details.containsKey("path");
+            case "commit-with-message-updated-file":
+            case "commit-with-message-doesnt-update-file":
+            case "commit-with-message-was-merged-into-branch":
+            case "commit-with-message-was-made-on-branch":
+            case "commit-with-message-has-tag":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Which parts of the repository checking this rule reads
+     * @return the parts, empty for rules that only print text
+     */
+    Set<RuleData> getDataNeeded() {
+
+        boolean hasPath = details.containsKey("path");
+
+        switch (getRuleName()){
+            case "head-exists":
+            case "branch-exists":
+            case "tag-exists":
+                return EnumSet.of(RuleData.REFS);
+            case "file-tracked-in-head":
+            case "file-untracked-in-head":
+            case "file-has-hash-in-head":
+                return EnumSet.of(RuleData.REFS, RuleData.HEAD_TREE);
+            case "file-contains-in-head":
+                return EnumSet.of(RuleData.REFS, RuleData.HEAD_TREE, RuleData.FILE_CONTENTS);
+            case "last-commit-message-for-file-contains":
+                return EnumSet.of(RuleData.REFS, RuleData.PATH_HISTORY);
+            case "any-commit-message-for-file-contains":
+            case "any-commit-message-contains":
+                return EnumSet.of(RuleData.REFS, hasPath ? RuleData.PATH_HISTORY : RuleData.FULL_HISTORY);
+            case "commit-with-message-updated-file":
+            case "commit-with-message-doesnt-update-file":
+                return EnumSet.of(RuleData.REFS, RuleData.FULL_HISTORY);
+            case "ignored":
+                return EnumSet.of(RuleData.WORKING_TREE);
+            case "file-tracked-in-branch":
+                return EnumSet.of(RuleData.REFS, RuleData.REF_TREE);
+            case "file-contains-in-branch":
+                return EnumSet.of(RuleData.REFS, RuleData.REF_TREE, RuleData.FILE_CONTENTS);
+            case "commit-with-message-was-merged-into-branch":
+            case "commit-with-message-was-made-on-branch":
+            case "commit-with-message-has-tag":
+                return EnumSet.of(RuleData.REFS, RuleData.FULL_HISTORY);
+            case "tagged-commit-added-text-to-file":
+                return EnumSet.of(RuleData.REFS, RuleData.REF_TREE, RuleData.FILE_CONTENTS);
+            case "at-least-a-number-of-commits":
+                return EnumSet.of(RuleData.REFS, RuleData.FULL_HISTORY);
+            default:
+                return EnumSet.noneOf(RuleData.class);
+        }
+    }
+
+    /**
+     * How long checking this rule may take before it is stopped and reported as timed out
+     * @return the time in milliseconds, or zero for no limit
+     */
+    long getTimeoutMillis() {
+        Object timeout = details.get("timeout-ms");
+        return timeout instanceof Number ? ((Number) timeout).longValue() : 0;
+    }
+
     boolean stopOnFail(){
         return details.containsKey("stop-on-fail") && ((Boolean)details.get("stop-on-fail"));
     }
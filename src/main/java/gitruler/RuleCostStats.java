@@ -0,0 +1,118 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * How long each type of rule has taken to check in earlier runs, kept in a local stats file so that
+ * the planner can check the cheap rules first.
+ *
+ * Only the count, the total time and the total commits visited of each rule type are kept. Once a type has
+ * been measured {@link #MAX_COUNT} times the older measurements are scaled down, so that the averages follow
+ * changes in the repositories being graded rather than growing ever harder to move.
+ */
+class RuleCostStats {
+
+    static final long MAX_COUNT = 10_000;
+
+    private final Map<String, long[]> ruleTypes = new TreeMap<>();
+
+    /**
+     * Read the stats from a file, starting with none if it doesn't exist yet
+     * @param file the stats file
+     * @return the stats
+     * @throws IOException if the file exists but couldn't be read
+     */
+    static RuleCostStats load(File file) throws IOException {
+
+        RuleCostStats stats = new RuleCostStats();
+        if (!file.isFile()) {
+            return stats;
+        }
+
+        JSONObject types = new JSONObject(FileUtils.readFileToString(file, Charset.forName("UTF-8")))
+                .getJSONObject("rule-types");
+        for (String ruleName : types.keySet()) {
+            JSONObject type = types.getJSONObject(ruleName);
+            stats.ruleTypes.put(ruleName, new long[] {
+                    type.getLong("count"), type.getLong("total-wall-ns"), type.optLong("total-commits-visited") });
+        }
+        return stats;
+    }
+
+    /**
+     * Add the measurements from a run
+     * @param profiles the cost of each rule checked
+     */
+    void record(List<RuleProfile> profiles) {
+
+        for (RuleProfile profile : profiles) {
+
+            long[] type = ruleTypes.computeIfAbsent(profile.getRuleName(), k -> new long[3]);
+            type[0]++;
+            type[1] += profile.getWallNanos();
+            type[2] += profile.getCommitsVisited();
+
+            if (type[0] > MAX_COUNT) {
+                type[0] /= 2;
+                type[1] /= 2;
+                type[2] /= 2;
+            }
+        }
+    }
+
+    /**
+     * @param ruleName the type of rule
+     * @return the average time it has taken to check, or -1 if it has never been measured
+     */
+    long getMeanWallNanos(String ruleName) {
+        long[] type = ruleTypes.get(ruleName);
+        return type == null || type[0] == 0 ? -1 : type[1] / type[0];
+    }
+
+    /**
+     * @param ruleName the type of rule
+     * @return the average time it has taken for each commit it visited, or -1 if it has never visited one
+     */
+    long getWallNanosPerCommit(String ruleName) {
+        long[] type = ruleTypes.get(ruleName);
+        return type == null || type[2] == 0 ? -1 : type[1] / type[2];
+    }
+
+    /**
+     * @param ruleName the type of rule
+     * @return how many times it has been measured
+     */
+    long getCount(String ruleName) {
+        long[] type = ruleTypes.get(ruleName);
+        return type == null ? 0 : type[0];
+    }
+
+    /**
+     * Write the stats to a file
+     * @param file the stats file
+     * @throws IOException if the file couldn't be written
+     */
+    void save(File file) throws IOException {
+
+        JSONObject types = new JSONObject();
+        for (Map.Entry<String, long[]> entry : ruleTypes.entrySet()) {
+            JSONObject type = new JSONObject();
+            type.put("count", entry.getValue()[0]);
+            type.put("total-wall-ns", entry.getValue()[1]);
+            type.put("total-commits-visited", entry.getValue()[2]);
+            type.put("mean-wall-ns", getMeanWallNanos(entry.getKey()));
+            types.put(entry.getKey(), type);
+        }
+
+        JSONObject root = new JSONObject();
+        root.put("rule-types", types);
+
+        FileUtils.writeStringToFile(file, root.toString(2), Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,25 @@
+package gitruler;
+
+/**
+ * The parts of a repository that checking a rule reads.
+ */
+enum RuleData {
+
+    REFS("refs"),
+    HEAD_TREE("HEAD tree"),
+    REF_TREE("branch or tag tree"),
+    FILE_CONTENTS("file contents"),
+    FULL_HISTORY("full history"),
+    PATH_HISTORY("path history"),
+    WORKING_TREE("working tree");
+
+    private final String description;
+
+    RuleData(String description) {
+        this.description = description;
+    }
+
+    String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,32 @@
+package gitruler;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for checking one rule against a repository.
+ */
+@Name("gitruler.RuleEvaluated")
+@Label("Rule Evaluated")
+@Category("GitRuler")
+@StackTrace(false)
+class RuleEvaluatedEvent extends Event {
+
+    @Label("Rule")
+    String rule;
+
+    @Label("Title")
+    String title;
+
+    @Label("Repository")
+    String repository;
+
+    @Label("Passed")
+    boolean passed;
+
+    @Label("Objects Opened")
+    long objectsOpened;
+
+    @Label("Bytes Inflated")
+    @DataAmount
+    long bytesInflated;
+}
@@ -0,0 +1,82 @@
+package gitruler;
+
+import org.json.JSONObject;
+
+/**
+ * The cost of checking one rule against one repository.
+ */
+class RuleProfile {
+
+    private final String repositoryPath;
+    private final String ruleName;
+    private final String title;
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long objectsOpened;
+    private final long bytesInflated;
+    private final long commitsVisited;
+    private final long treeEntriesVisited;
+
+    RuleProfile(String repositoryPath, Rule rule, long wallNanos, long cpuNanos, long objectsOpened,
+                long bytesInflated, long commitsVisited, long treeEntriesVisited) {
+        this.repositoryPath = repositoryPath;
+        this.ruleName = rule.getRuleName();
+        this.title = rule.getTitle();
+        this.wallNanos = wallNanos;
+        this.cpuNanos = cpuNanos;
+        this.objectsOpened = objectsOpened;
+        this.bytesInflated = bytesInflated;
+        this.commitsVisited = commitsVisited;
+        this.treeEntriesVisited = treeEntriesVisited;
+    }
+
+    String getRepositoryPath() {
+        return repositoryPath;
+    }
+
+    String getRuleName() {
+        return ruleName;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    long getWallNanos() {
+        return wallNanos;
+    }
+
+    long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    long getObjectsOpened() {
+        return objectsOpened;
+    }
+
+    long getBytesInflated() {
+        return bytesInflated;
+    }
+
+    long getCommitsVisited() {
+        return commitsVisited;
+    }
+
+    long getTreeEntriesVisited() {
+        return treeEntriesVisited;
+    }
+
+    JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("repository", repositoryPath);
+        json.put("rule", ruleName);
+        json.put("title", title);
+        json.put("wall-ns", wallNanos);
+        json.put("cpu-ns", cpuNanos);
+        json.put("objects-opened", objectsOpened);
+        json.put("bytes-inflated", bytesInflated);
+        json.put("commits-visited", commitsVisited);
+        json.put("tree-entries-visited", treeEntriesVisited);
+        return json;
+    }
+}
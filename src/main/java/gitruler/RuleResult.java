@@ -1,5 +1,8 @@
 package gitruler;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 /**
  * Created by rc305 on 05/07/2018.
  */
@@ -8,8 +11,10 @@ public class RuleResult {
     private boolean passed;
     private String message = "";
     private String exceptionMessage = "";
-    private String exceptionTrace = "";
+    private String exceptionTrace;
+    private Throwable exception;
     public boolean exceptionOccurred;
+    private boolean timedOut;
 
     public RuleResult(boolean defaultPassed) {
         passed = defaultPassed;
@@ -43,14 +48,52 @@ public class RuleResult {
         this.exceptionMessage = exceptionMessage;
     }
 
+    /**
+     * Get the stack trace of the exception that made the rule fail. It is only rendered the first time it is
+     * asked for, as most runs never print it.
+     * @return the trace, or an empty string if there wasn't an exception or its trace wasn't kept
+     */
     public String getExceptionTrace() {
+
+        if (exceptionTrace == null) {
+            if (exception == null) {
+                return "";
+            }
+            StringWriter sw = new StringWriter();
+            exception.printStackTrace(new PrintWriter(sw));
+            exceptionTrace = sw.toString();
+            exception = null;
+        }
         return exceptionTrace;
     }
 
+    /**
+     * Fail because of an exception, keeping it so that its trace can be rendered if it is needed
+     * @param exception the exception
+     */
+    void setException(Throwable exception) {
+        this.exception = exception;
+        this.exceptionMessage = exception.getMessage();
+        this.exceptionOccurred = true;
+    }
+
     public void setExceptionTrace(String exceptionTrace) {
         this.exceptionTrace = exceptionTrace;
     }
 
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Fail because checking the rule took longer than it was allowed
+     * @param message says which time limit ran out
+     */
+    void setTimedOut(String message) {
+        this.timedOut = true;
+        setFailWithMessage(message);
+    }
+
     void setFailWithMessage(String message){
         this.setPassed(false);
         this.setMessage(message);
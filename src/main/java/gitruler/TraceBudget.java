@@ -0,0 +1,40 @@
+package gitruler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limit on how many rule results in a run keep the exception that made them fail, so that a rule
+ * failing the same way in every repository doesn't fill the heap with identical stack traces.
+ * Results past the limit keep only the exception's message. Safe to use from many threads.
+ */
+class TraceBudget {
+
+    private final AtomicInteger remaining;
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    /**
+     * @param maxTraces how many exceptions can be kept
+     */
+    TraceBudget(int maxTraces) {
+        this.remaining = new AtomicInteger(maxTraces);
+    }
+
+    /**
+     * Take one trace from the budget
+     * @return true if the trace can be kept
+     */
+    boolean tryRetain() {
+        if (remaining.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return how many traces weren't kept
+     */
+    int getDropped() {
+        return dropped.get();
+    }
+}
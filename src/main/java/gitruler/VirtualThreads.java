@@ -0,0 +1,63 @@
+package gitruler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Makes virtual threads when running on Java 21 or later.
+ *
+ * The code is compiled for Java 8, so the Java 21 API is looked up by reflection rather than
+ * being linked against. On older JVMs there are no virtual threads and platform threads are used instead.
+ */
+final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Class<?> BUILDER = findClass("java.lang.Thread$Builder");
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Does this JVM support virtual threads?
+     * @return true on Java 21 or later
+     */
+    static boolean isAvailable() {
+        return OF_VIRTUAL != null && BUILDER != null;
+    }
+
+    /**
+     * Create a factory for virtual threads
+     * @param name the name of the threads, which is followed by a number
+     * @return the factory, or null if this JVM doesn't support virtual threads
+     */
+    static ThreadFactory factory(String name) {
+
+        if (!isAvailable()) {
+            return null;
+        }
+
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) BUILDER.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Class<?> findClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package gitruler;
+
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares out the repositories of a batch between several machines through a folder they can all see, e.g.
+ * on the same network file system as the repositories, with nothing else to run.
+ *
+ * A machine claims a repository by creating a lease file for it, which only one can do, holding a token for
+ * that claim. While it is grading the repository it keeps touching the lease to show it is still alive, and
+ * once the results are safely in its shard it marks the repository done and removes the lease. A lease that
+ * hasn't been touched for longer than the lease time belongs to a machine that has stopped, so another
+ * machine can break it and take the repository over. A machine only touches or removes a lease that still
+ * holds its own token, and forgets any that don't. The clocks of the machines need to agree to well within
+ * the lease time.
+ *
+ * Each machine writes its results to a shard of its own, a {@link BatchJournal} in the shards folder, and
+ * {@link #merge(File, File, String, List)} puts them back together. A repository can be graded twice if a lease
+ * is broken while its holder is only slow, in which case the later result is the one kept.
+ */
+class WorkQueue implements Closeable {
+
+    private static final String LEASES = "leases";
+    private static final String DONE = "done";
+    private static final String SHARDS = "shards";
+    private static final String SHARD_SUFFIX = ".ndjson";
+
+    private final Path baseFolder;
+    private final Path leases;
+    private final Path done;
+    private final Path shards;
+    private final String node;
+    private final long leaseMillis;
+    private final Map<Path, String> held = new ConcurrentHashMap<>();
+    private final AtomicLong claims = new AtomicLong();
+    private final ScheduledExecutorService heartbeat;
+
+    /**
+     * Join the queue and start keeping this machine's leases alive
+     * @param baseFolder the batch folder the repositories are in
+     * @param queueFolder the folder shared by the machines, which is created if need be
+     * @param node a name for this machine that no other machine sharing the queue has
+     * @param leaseMillis how long a lease lasts without being touched
+     * @throws IOException if the queue folder couldn't be created
+     */
+    WorkQueue(File baseFolder, File queueFolder, String node, long leaseMillis) throws IOException {
+
+        this.baseFolder = baseFolder.toPath().toAbsolutePath().normalize();
+        this.leases = Files.createDirectories(queueFolder.toPath().resolve(LEASES));
+        this.done = Files.createDirectories(queueFolder.toPath().resolve(DONE));
+        this.shards = Files.createDirectories(queueFolder.toPath().resolve(SHARDS));
+        this.node = node;
+        this.leaseMillis = leaseMillis;
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gitruler-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, leaseMillis / 3);
+        heartbeat.scheduleAtFixedRate(this::touchLeases, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the file this machine writes its results to
+     */
+    File getShard() {
+        return shards.resolve(node + SHARD_SUFFIX).toFile();
+    }
+
+    /**
+     * Try to claim a repository for this machine to grade
+     * @param folder the repository's folder
+     * @return true if it is this machine's to grade, false if it is done or another machine has it
+     * @throws IOException if the queue couldn't be read or written
+     */
+    boolean claim(File folder) throws IOException {
+
+        String key = key(folder);
+        Path doneMarker = done.resolve(key);
+        if (Files.exists(doneMarker)) {
+            return false;
+        }
+
+        Path lease = leases.resolve(key);
+        String token = node + " " + claims.incrementAndGet();
+        if (!tryCreate(lease, token)) {
+            String stale = readIfStale(lease);
+            if (stale == null || !breakLease(lease, stale) || !tryCreate(lease, token)) {
+                return false;
+            }
+        }
+        held.put(lease, token);
+
+        // it may have been finished between looking for the marker and taking the lease
+        if (Files.exists(doneMarker)) {
+            release(folder);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param folder a repository's folder
+     * @return true if a machine has marked it done
+     */
+    boolean isDone(File folder) {
+        return Files.exists(done.resolve(key(folder)));
+    }
+
+    /**
+     * @return how long to wait before looking again at repositories that other machines have claimed,
+     * which is often enough to notice a lease going stale soon after it does
+     */
+    long getRetryMillis() {
+        return Math.max(1, Math.min(leaseMillis / 3, 5000));
+    }
+
+    /**
+     * Mark a repository this machine claimed as done and give up its lease. Its results must already be in the shard.
+     * @param folder the repository's folder
+     * @throws IOException if the queue couldn't be written
+     */
+    void complete(File folder) throws IOException {
+
+        if (!held.containsKey(leases.resolve(key(folder)))) {
+            return;
+        }
+
+        try {
+            Files.createFile(done.resolve(key(folder)));
+        } catch (FileAlreadyExistsException ignored) {
+            // another machine graded it too after taking over the lease
+        }
+        release(folder);
+    }
+
+    /**
+     * Give up the lease on a repository without marking it done, so that another machine can grade it
+     * @param folder the repository's folder
+     */
+    void release(File folder) {
+
+        Path lease = leases.resolve(key(folder));
+        String token = held.remove(lease);
+        if (token != null) {
+            deleteIfOwned(lease, token);
+        }
+    }
+
+    /**
+     * Remove a lease unless another machine has taken it over
+     */
+    private void deleteIfOwned(Path lease, String token) {
+        try {
+            if (token.equals(readToken(lease))) {
+                Files.deleteIfExists(lease);
+            }
+        } catch (IOException ignored) {
+            // it will expire instead
+        }
+    }
+
+    private String key(File folder) {
+        try {
+            return URLEncoder.encode(BatchJournal.relativePath(baseFolder, folder), StandardCharsets.UTF_8.name());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean tryCreate(Path lease, String token) throws IOException {
+        try {
+            Files.write(lease, (token + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the token of the claim the lease is for, or null if there is no lease
+     */
+    private static String readToken(Path lease) throws IOException {
+        try {
+            return new String(Files.readAllBytes(lease), StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private boolean isStale(Path lease) throws IOException {
+        return System.currentTimeMillis() - Files.getLastModifiedTime(lease).toMillis() > leaseMillis;
+    }
+
+    /**
+     * @return the token in the lease if it is stale, an empty token if its holder has just finished with it,
+     * or null if it is still alive
+     */
+    private String readIfStale(Path lease) throws IOException {
+        try {
+            if (!isStale(lease)) {
+                return null;
+            }
+            String token = readToken(lease);
+            return token != null ? token : "";
+        } catch (NoSuchFileException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Move a stale lease out of the way. Moving is atomic, but another machine may have broken the same
+     * lease and created a fresh one since it was seen to be stale, so what was moved is checked and put
+     * back if it isn't the stale lease.
+     * @param stale the token that was in the stale lease
+     * @return true if the lease is out of the way
+     */
+    private boolean breakLease(Path lease, String stale) throws IOException {
+
+        Path broken = leases.resolve(lease.getFileName() + ".broken-" + node + "-" + System.nanoTime());
+        try {
+            Files.move(lease, broken, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // another machine moved it first
+            return true;
+        }
+
+        if (stale.equals(readToken(broken)) && isStale(broken)) {
+            Files.deleteIfExists(broken);
+            return true;
+        }
+
+        try {
+            Files.move(broken, lease);
+        } catch (FileAlreadyExistsException e) {
+            // a third machine has claimed it since, so the lease moved aside is no use to its holder
+            Files.deleteIfExists(broken);
+        }
+        return false;
+    }
+
+    private void touchLeases() {
+
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (Map.Entry<Path, String> entry : held.entrySet()) {
+            try {
+                if (entry.getValue().equals(readToken(entry.getKey()))) {
+                    Files.setLastModifiedTime(entry.getKey(), now);
+                } else {
+                    // lost to another machine, which will grade it again
+                    held.remove(entry.getKey(), entry.getValue());
+                }
+            } catch (IOException ignored) {
+                // tried again at the next beat
+            }
+        }
+    }
+
+    /**
+     * Put the results from every machine's shard together
+     * @param baseFolder the batch folder the repositories are in
+     * @param queueFolder the folder shared by the machines
+     * @param configFingerprint identifies the config, see {@link BatchJournal#fingerprint(File)}. Shards
+     *                          written with another config are left out.
+     * @param rules the rules that were checked
+     * @return the results of each repository, in order of its path from the batch folder
+     * @throws IOException if a shard couldn't be read
+     */
+    static List<RepositoryResult> merge(File baseFolder, File queueFolder, String configFingerprint, List<Rule> rules) throws IOException {
+
+        File[] shardFiles = queueFolder.toPath().resolve(SHARDS).toFile().listFiles((dir, name) -> name.endsWith(SHARD_SUFFIX));
+        if (shardFiles == null) {
+            throw new IOException("There are no shards in " + queueFolder);
+        }
+
+        // when a repository was graded more than once, keep the latest
+        Map<String, JSONObject> latest = new TreeMap<>();
+        for (File shard : shardFiles) {
+            for (Map.Entry<String, JSONObject> entry : BatchJournal.read(shard, configFingerprint).entrySet()) {
+                JSONObject kept = latest.get(entry.getKey());
+                if (kept == null || kept.optLong("graded-at") <= entry.getValue().optLong("graded-at")) {
+                    latest.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        List<RepositoryResult> results = new ArrayList<>();
+        for (Map.Entry<String, JSONObject> entry : latest.entrySet()) {
+            File folder = new File(entry.getKey());
+            if (!folder.isAbsolute()) {
+                folder = new File(baseFolder, entry.getKey());
+            }
+            RepositoryResult result = BatchJournal.toResult(entry.getValue(), folder.getPath(), rules);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Stop keeping leases alive and give up any still held, e.g. after a failed run
+     */
+    @Override
+    public void close() {
+
+        heartbeat.shutdownNow();
+        for (Map.Entry<Path, String> entry : held.entrySet()) {
+            deleteIfOwned(entry.getKey(), entry.getValue());
+        }
+        held.clear();
+    }
+}
@@ -1,7 +0,0 @@
-package gitruler.exceptions;
-
-public class BranchNotFoundException extends Exception {
-    public BranchNotFoundException(String s) {
-        super(s);
-    }
-}
@@ -0,0 +1,14 @@
+package gitruler.exceptions;
+
+/**
+ * Thrown from inside a walk or file read when the rule being checked has run out of time.
+ * Unchecked so that it passes through the iterators and callbacks the walks are made of.
+ */
+public class RuleTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RuleTimeoutException(String s) {
+        super(s);
+    }
+}
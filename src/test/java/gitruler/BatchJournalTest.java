@@ -0,0 +1,80 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchJournalTest {
+
+    private static final File BASE = new File("/cohort");
+    private static final File STUDENT = new File("/cohort/student-1");
+    private static final File OTHER = new File("/cohort/student-2");
+
+    private static List<Rule> rules() {
+        List<Rule> rules = new ArrayList<>();
+        for (String name : Arrays.asList("head-exists", "file-tracked-in-head", "tag-exists")) {
+            Map<String, Object> map = new HashMap<>();
+            map.put("rule", name);
+            map.put("path", "a.txt");
+            map.put("score-if-correct", 1);
+            rules.add(new Rule(map));
+        }
+        return rules;
+    }
+
+    private static RepositoryResult graded(File folder, List<Rule> rules) {
+        RepositoryResult result = new RepositoryResult(folder.getPath());
+        result.add(rules.get(0), new RuleResult(true));
+        RuleResult timedOut = new RuleResult();
+        timedOut.setTimedOut("Stopped after the rule's time limit of 5 ms");
+        result.add(rules.get(1), timedOut);
+        result.add(rules.get(2), null);
+        result.setSkippedRules();
+        return result;
+    }
+
+    @Test
+    void testRepositoriesAreRestoredWhileTheirRefsMatch() throws IOException {
+
+        List<Rule> rules = rules();
+        File file = Files.createTempFile("gitruler-journal", ".ndjson").toFile();
+        try {
+            try (BatchJournal journal = BatchJournal.open(file, BASE, "config-1", 1)) {
+                journal.record(STUDENT, "refs-1", graded(STUDENT, rules));
+                journal.record(OTHER, "refs-1", graded(OTHER, rules));
+            }
+
+            // a crash part way through writing a line
+            String written = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
+            FileUtils.writeStringToFile(file, written.substring(0, written.length() - 10), StandardCharsets.UTF_8);
+
+            try (BatchJournal journal = BatchJournal.open(file, BASE, "config-1", 1)) {
+
+                assertEquals(1, journal.getGradedCount());
+                assertNull(journal.restore(STUDENT, "refs-2", rules));
+                assertNull(journal.restore(OTHER, "refs-1", rules));
+
+                RepositoryResult restored = journal.restore(STUDENT, "refs-1", rules);
+                assertNotNull(restored);
+                assertEquals(1, restored.getTotalScore());
+                assertTrue(restored.hasSkippedRules());
+                assertTrue(restored.getResults().get(1).isTimedOut());
+                assertEquals("Stopped after the rule's time limit of 5 ms", restored.getResults().get(1).getMessage());
+                assertNull(restored.getResults().get(2));
+            }
+
+            try (BatchJournal journal = BatchJournal.open(file, BASE, "config-2", 1)) {
+                assertEquals(0, journal.getGradedCount());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
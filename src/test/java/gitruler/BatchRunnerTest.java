@@ -0,0 +1,73 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchRunnerTest {
+
+    private File batch;
+    private List<File> folders;
+
+    @BeforeEach
+    void generateCohort() throws IOException {
+        batch = Files.createTempDirectory("gitruler-batch").toFile();
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setStudents(4);
+        generator.setCommitsPerStudent(3);
+        folders = generator.generateCohort(batch);
+    }
+
+    @AfterEach
+    void deleteCohort() throws IOException {
+        FileUtils.deleteDirectory(batch);
+    }
+
+    @Test
+    void testARepositoryThatBreaksGradingFailsAlone() throws IOException {
+
+        File broken = folders.get(1);
+        RepositoryGrader grader = new RepositoryGrader(new GitRulerConfig(new File(batch, "gitrules.json"))) {
+            @Override
+            RepositoryResult grade(GitInteractor git) {
+                if (new File(git.getRepositoryPath()).equals(broken)) {
+                    throw new IllegalStateException("a rule broke");
+                }
+                return super.grade(git);
+            }
+        };
+
+        List<String> reported = new ArrayList<>();
+        new BatchRunner(grader).run(batch, new BatchRunner.Listener<String>() {
+            @Override
+            public String repositoryGraded(RepositoryResult result) {
+                return result.getRepositoryName() + " graded";
+            }
+
+            @Override
+            public String repositoryFailed(File folder, Throwable cause) {
+                return folder.getName() + " failed: " + cause.getMessage();
+            }
+
+            @Override
+            public void inOrder(String kept) {
+                reported.add(kept);
+            }
+        });
+
+        List<String> expected = new ArrayList<>();
+        for (File folder : folders) {
+            expected.add(folder.equals(broken) ? folder.getName() + " failed: a rule broke" : folder.getName() + " graded");
+        }
+        assertEquals(expected, reported);
+    }
+}
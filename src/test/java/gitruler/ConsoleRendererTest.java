@@ -0,0 +1,51 @@
+package gitruler;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsoleRendererTest {
+
+    @Test
+    void testBlocksFromManyThreadsStayTogether() throws InterruptedException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        String separator = System.lineSeparator();
+
+        ConsoleRenderer console = new ConsoleRenderer(bytes);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    String name = thread + "-" + i;
+                    console.print(console.newBlock()
+                            .append(name).append(" first").append(separator)
+                            .append(name).append(" second").append(separator));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        console.println("done");
+        console.close();
+
+        String[] lines = new String(bytes.toByteArray(), Charset.defaultCharset()).split(separator);
+        assertEquals(4 * 500 * 2 + 1, lines.length);
+        for (int i = 0; i < lines.length - 1; i += 2) {
+            String name = lines[i].substring(0, lines[i].indexOf(' '));
+            assertEquals(name + " first", lines[i]);
+            assertEquals(name + " second", lines[i + 1]);
+        }
+        assertEquals("done", lines[lines.length - 1]);
+    }
+}
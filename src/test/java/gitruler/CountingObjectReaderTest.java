@@ -0,0 +1,48 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountingObjectReaderTest {
+
+    @Test
+    void testOnlyTheBytesReadAreCounted() throws IOException {
+
+        File folder = Files.createTempDirectory("gitruler-reader").toFile();
+        try (Repository repo = new RepositoryGenerator().generateStudent(folder, 0);
+             CountingObjectReader reader = new CountingObjectReader(repo.newObjectReader());
+             RevWalk walk = new RevWalk(repo)) {
+
+            RevCommit head = walk.parseCommit(repo.resolve(Constants.HEAD));
+
+            ObjectLoader tree = reader.open(head.getTree());
+            assertTrue(tree.getSize() > 0);
+            assertEquals(1, reader.getObjectsOpened());
+            assertEquals(0, reader.getBytesInflated(), "Looking at the size reads nothing");
+
+            tree.getCachedBytes();
+            tree.getBytes();
+            assertEquals(tree.getSize(), reader.getBytesInflated(), "The same bytes are only counted once");
+
+            long before = reader.getBytesInflated();
+            try (ObjectStream stream = reader.open(head.getTree()).openStream()) {
+                assertEquals(10, stream.read(new byte[10]));
+            }
+            assertEquals(before + 10, reader.getBytesInflated(), "Only what is read from a stream counts");
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package gitruler;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationPlannerTest {
+
+    private static Rule rule(String name, boolean stopOnFail) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("rule", name);
+        map.put("path", "a.txt");
+        if (stopOnFail) {
+            map.put("stop-on-fail", true);
+        }
+        return new Rule(map);
+    }
+
+    @Test
+    void testBarrierFirstThenCheapestWithinEachStretch() {
+
+        List<Rule> rules = Arrays.asList(
+                rule("any-commit-message-contains", false),
+                rule("ignored", false),
+                rule("head-exists", false),
+                rule("ignored", false),
+                rule("file-tracked-in-head", true),
+                rule("any-commit-message-contains", false),
+                rule("tag-exists", false));
+
+        List<Integer> order = new EvaluationPlanner(null).evaluationOrder(rules);
+
+        assertEquals(Arrays.asList(4, 2, 1, 3, 0, 6, 5), order);
+    }
+
+    @Test
+    void testStatsSurviveASaveAndLoad() throws IOException {
+
+        Rule cheap = rule("head-exists", false);
+        Rule slow = rule("file-tracked-in-head", false);
+
+        RuleCostStats stats = new RuleCostStats();
+        stats.record(Arrays.asList(
+                new RuleProfile("repo", slow, 9_000_000, 0, 0, 0, 0, 0),
+                new RuleProfile("repo", slow, 11_000_000, 0, 0, 0, 0, 0),
+                new RuleProfile("repo", cheap, 1_000, 0, 0, 0, 0, 0)));
+
+        File file = Files.createTempFile("gitruler-stats", ".json").toFile();
+        try {
+            stats.save(file);
+            RuleCostStats loaded = RuleCostStats.load(file);
+
+            assertEquals(10_000_000, loaded.getMeanWallNanos("file-tracked-in-head"));
+            assertEquals(2, loaded.getCount("file-tracked-in-head"));
+            assertEquals(-1, loaded.getMeanWallNanos("tag-exists"));
+
+            EvaluationPlanner planner = new EvaluationPlanner(loaded);
+            assertEquals(1_000, planner.estimateNanos(cheap));
+            assertTrue(planner.isMeasured(slow));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void testHistoryRulesScaleWithCommits() {
+
+        EvaluationPlanner planner = new EvaluationPlanner(null);
+        Rule history = rule("at-least-a-number-of-commits", false);
+        Rule head = rule("file-tracked-in-head", false);
+
+        assertEquals(10 * planner.estimateNanos(history, 100), planner.estimateNanos(history, 1000));
+        assertEquals(planner.estimateNanos(head), planner.estimateNanos(head, 1000));
+        assertEquals(planner.estimateNanos(history), planner.estimateNanos(history, -1));
+    }
+}
@@ -1,6 +1,5 @@
 package gitruler;
 
-import gitruler.exceptions.BranchNotFoundException;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
@@ -14,6 +13,7 @@ import org.junit.jupiter.api.BeforeAll;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
 import java.util.Properties;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -46,77 +46,49 @@ public class GitFunctionsTest {
     }
 
     @Test
-    public void getBranchRefExistsTest() {
+    public void getBranchRefExistsTest() throws IOException, GitAPIException {
 
-        try {
-            RevCommit branchCommit = gf.getBranchCommit("branch-1");
-            assertTrue(branchCommit != ObjectId.zeroId() && branchCommit != null);
-        } catch (BranchNotFoundException e) {
-            fail("Failed to find branch");
-        }
+        Optional<RevCommit> branchCommit = gf.findBranchCommit("branch-1");
+        assertTrue(branchCommit.isPresent(), "Failed to find branch");
     }
 
 
     @Test
-    public void getBranchRefMasterTest() {
+    public void getBranchRefMasterTest() throws IOException, GitAPIException {
 
-        try {
-            RevCommit branchCommit = gf.getBranchCommit("master");
-            assertTrue(branchCommit != ObjectId.zeroId() && branchCommit != null);
-        } catch (BranchNotFoundException e) {
-            fail("Failed to find branch");
-        }
+        Optional<RevCommit> branchCommit = gf.findBranchCommit("master");
+        assertTrue(branchCommit.isPresent(), "Failed to find branch");
     }
 
 
     @Test
-    public void getBranchRefNotExistsTest() {
+    public void getBranchRefNotExistsTest() throws IOException, GitAPIException {
 
-        try {
-            gf.getBranchCommit("unknown");
-            fail("Branch was incorrectly found");
-        } catch (BranchNotFoundException e) {
-            assert(e.getMessage().contains("unknown"));
-        }
+        assertFalse(gf.findBranchCommit("unknown").isPresent(), "Branch was incorrectly found");
     }
 
     @Test
-    public void getTreeIdFromPathTest() {
+    public void findPathIdTest() throws IOException {
 
         RevWalk walk = new RevWalk(repo);
-        try {
-            RevCommit commit = walk.parseCommit(ObjectId.fromString("069eeb05253827a6d7d281f3e51665781e5c3f37"));
-            ObjectId treeId = gf.getTreeIdFromPath("file1.txt", commit);
-            assertTrue(treeId != ObjectId.zeroId() && treeId != null);
-        } catch (IOException e) {
-            fail("Failed to get commit");
-        }
+        RevCommit commit = walk.parseCommit(ObjectId.fromString("069eeb05253827a6d7d281f3e51665781e5c3f37"));
+        assertTrue(gf.findPathId("file1.txt", commit).isPresent());
     }
 
     @Test
-    public void getTreeIdFromPathIncorrectPathTest() {
+    public void findPathIdIncorrectPathTest() throws IOException {
 
         RevWalk walk = new RevWalk(repo);
-        try {
-            RevCommit commit = walk.parseCommit(ObjectId.fromString("069eeb05253827a6d7d281f3e51665781e5c3f37"));
-            ObjectId treeId = gf.getTreeIdFromPath("file2.txt", commit);
-            assertFalse(treeId != ObjectId.zeroId() && treeId != null);
-        } catch (IOException e) {
-            fail("Commit was found when it should not have been");
-        }
+        RevCommit commit = walk.parseCommit(ObjectId.fromString("069eeb05253827a6d7d281f3e51665781e5c3f37"));
+        assertFalse(gf.findPathId("file2.txt", commit).isPresent());
     }
 
     @Test
-    public void getTreeIdFromPathIncorrectCommitIdTest() {
+    public void findPathIdIncorrectCommitIdTest() throws IOException {
 
         RevWalk walk = new RevWalk(repo);
-        try {
-            RevCommit commit = walk.parseCommit(ObjectId.fromString("0c895c4ef98ee8184ea7bc619e56c5ce31948628"));
-            ObjectId treeId = gf.getTreeIdFromPath("file2.txt", commit);
-            assertFalse(treeId != ObjectId.zeroId() && treeId != null);
-        } catch (IOException e) {
-            fail("Commit was found when it should not have been");
-        }
+        RevCommit commit = walk.parseCommit(ObjectId.fromString("0c895c4ef98ee8184ea7bc619e56c5ce31948628"));
+        assertFalse(gf.findPathId("file2.txt", commit).isPresent());
     }
 
     @Test
@@ -127,11 +99,11 @@ public class GitFunctionsTest {
     }
 
     @Test
-    public void getCommitWithMessageContainingTest() {
+    public void getCommitWithMessageContainingTest() throws IOException {
 
-        assertNotNull(gf.getCommitWithMessageContaining("FILE1", true));
-        assertNull(gf.getCommitWithMessageContaining("FILE1", false));
-        assertNotNull(gf.getCommitWithMessageContaining("add file in branch 1", false), "Check commit in branch");
+        assertTrue(gf.getCommitWithMessageContaining("FILE1", true).isPresent());
+        assertFalse(gf.getCommitWithMessageContaining("FILE1", false).isPresent());
+        assertTrue(gf.getCommitWithMessageContaining("add file in branch 1", false).isPresent(), "Check commit in branch");
     }
 
     @Test
@@ -180,17 +152,17 @@ public class GitFunctionsTest {
     @Test
     public void pathExistsInCommitTest() throws IOException {
 
-        RevCommit commit =  gf.getCommitFromRefString(Constants.HEAD);
+        RevCommit commit =  gf.findCommit(Constants.HEAD).get();
         assertTrue(gf.pathExistsInCommit(commit, "file1.txt"));
 
-        commit =  gf.getCommitFromRefString("0c895c4ef98ee8184ea7bc619e56c5ce31948628");
+        commit =  gf.findCommit("0c895c4ef98ee8184ea7bc619e56c5ce31948628").get();
         assertFalse((gf.pathExistsInCommit(commit, "file1.txt")));
     }
 
     @Test
     public void pathExistsInCommitWithIdTest() throws IOException {
 
-        RevCommit commit =  gf.getCommitFromRefString(Constants.HEAD);
+        RevCommit commit =  gf.findCommit(Constants.HEAD).get();
         assertTrue(gf.pathExistsInCommit(commit, "file1.txt", "67ba9998ffaa6edad2d84287800d9efd1941409c"));
 
         assertFalse((gf.pathExistsInCommit(commit, "file1.txt", "incorrectID")));
@@ -199,11 +171,12 @@ public class GitFunctionsTest {
     @Test
     public void getContentsOfFileInCommitTest() throws IOException {
 
-        RevCommit commit =  gf.getCommitFromRefString("892d8e86ce4d04618e46309914fc6d8666dbed49");
-        assertEquals(gf.getContentsOfFileInCommit(commit, "file2.txt"),"file2"+System.lineSeparator());
+        RevCommit commit =  gf.findCommit("892d8e86ce4d04618e46309914fc6d8666dbed49").get();
+        assertEquals(gf.getContentsOfFileInCommit(commit, "file2.txt").get(),"file2"+System.lineSeparator());
+        assertFalse(gf.getContentsOfFileInCommit(commit, "no-such-file.txt").isPresent());
 
-        commit =  gf.getCommitFromRefString("069eeb05253827a6d7d281f3e51665781e5c3f37");
-        String contents = gf.getContentsOfFileInCommit(commit, "file1.txt");
+        commit =  gf.findCommit("069eeb05253827a6d7d281f3e51665781e5c3f37").get();
+        String contents = gf.getContentsOfFileInCommit(commit, "file1.txt").get();
         assertTrue(!contents.contains("updated"), "Check folder commits are correctly checked");
     }
 
@@ -215,6 +188,11 @@ public class GitFunctionsTest {
         assertFalse(gf.anyCommitMessagesForFileContainsString("file1.txt", "ADD README", true));
     }
 
+    @Test
+    public void findCommitMissingRefTest() throws IOException {
+        assertFalse(gf.findCommit("no-such-ref").isPresent());
+    }
+
     @Test
     public void hasBranchExistsTest() throws GitAPIException {
         assertTrue(gf.doesBranchExist("branch-1"));
@@ -0,0 +1,55 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GradingSessionTest {
+
+    @Test
+    void testTheWalkLetsGoOfItsCommitsWhenTheBudgetRunsOut() throws IOException, InterruptedException {
+
+        File folder = Files.createTempDirectory("gitruler-session").toFile();
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setCommitsPerStudent(50);
+
+        try (Repository repo = generator.generateStudent(folder, 0)) {
+
+            MemoryGovernor governor = new MemoryGovernor(1024 * 1024, 4096);
+            MemoryBudget budget = governor.admit(0);
+            GradingSession session = new GradingSession(repo);
+            session.setMemoryBudget(budget);
+
+            RevWalk walk = session.getWalk();
+            walk.markStart(session.parseCommit(session.resolve(Constants.HEAD)));
+            int walked = 0;
+            for (RevCommit ignored : walk) {
+                walked++;
+            }
+            assertTrue(walked > 40);
+            assertTrue(budget.getUsedBytes() > 0, "The walk's commits are charged");
+            assertTrue(budget.getUsedBytes() <= 4096, "Charges stop at the limit");
+
+            session.getWalk();
+            assertEquals(0, budget.getUsedBytes(), "The next query starts with an empty walk");
+
+            session.resolve(Constants.HEAD);
+            assertTrue(budget.getUsedBytes() > 0, "Cache entries are charged");
+
+            session.close();
+            assertEquals(0, budget.getUsedBytes());
+            budget.close();
+        } finally {
+            FileUtils.deleteDirectory(folder);
+        }
+    }
+}
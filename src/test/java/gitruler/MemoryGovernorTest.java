@@ -0,0 +1,56 @@
+package gitruler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryGovernorTest {
+
+    @Test
+    void testRepositoryLimit() throws InterruptedException {
+
+        MemoryGovernor governor = new MemoryGovernor(1000, 300);
+        MemoryBudget budget = governor.admit(100);
+
+        assertTrue(budget.tryReserve(250), "Grows beyond the admitted share");
+        assertFalse(budget.tryReserve(100), "Can't go over the repository limit");
+        assertEquals(250, governor.getGrantedBytes());
+
+        budget.release(250);
+        assertTrue(budget.tryReserve(100));
+
+        budget.close();
+        assertEquals(0, governor.getGrantedBytes());
+        assertEquals(250, governor.getPeakGrantedBytes());
+    }
+
+    @Test
+    void testGlobalBudget() throws InterruptedException {
+
+        MemoryGovernor governor = new MemoryGovernor(500, 400);
+        MemoryBudget first = governor.admit(400);
+        MemoryBudget second = governor.admit(100);
+
+        assertFalse(second.tryReserve(200), "No room left to grow into");
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread waiting = new Thread(() -> {
+            try {
+                governor.admit(200).close();
+                admitted.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        waiting.start();
+
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS), "Admission waits for room");
+        first.close();
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+
+        second.close();
+        assertEquals(0, governor.getGrantedBytes());
+    }
+}
@@ -0,0 +1,82 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelRuleEvaluatorTest {
+
+    private File folder;
+
+    @BeforeEach
+    void createFolder() throws IOException {
+        folder = Files.createTempDirectory("gitruler-parallel").toFile();
+    }
+
+    @AfterEach
+    void deleteFolder() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    private static Rule rule(String name, Object... details) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("rule", name);
+        for (int i = 0; i < details.length; i += 2) {
+            map.put((String) details[i], details[i + 1]);
+        }
+        return new Rule(map);
+    }
+
+    @Test
+    void testFailedBarrierSkipsTheRest() throws IOException {
+        checkFailedBarrierSkipsTheRest(false);
+    }
+
+    @Test
+    void testSpeculativeResultsAfterFailedBarrierAreDiscarded() throws IOException {
+        checkFailedBarrierSkipsTheRest(true);
+    }
+
+    private void checkFailedBarrierSkipsTheRest(boolean speculative) throws IOException {
+
+        new RepositoryGenerator().generateStudent(folder, 0).close();
+
+        List<Rule> rules = Arrays.asList(
+                rule("head-exists", "stop-on-fail", true),
+                rule("file-tracked-in-head", "path", RepositoryGenerator.README),
+                rule("branch-exists", "branch", "no-such-branch", "stop-on-fail", true),
+                rule("head-exists"),
+                rule("file-tracked-in-head", "path", RepositoryGenerator.README));
+
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        GitInteractor git = new GitInteractor(folder.getPath());
+        try {
+            List<Rule> reported = new ArrayList<>();
+            RepositoryResult result = new RepositoryResult(folder.getPath());
+            ParallelRuleEvaluator evaluator = new ParallelRuleEvaluator(threads);
+            evaluator.setSpeculative(speculative);
+            evaluator.evaluate(git, rules, (rule, ruleResult) -> reported.add(rule), result);
+
+            assertEquals(rules, reported, "Reported in config order");
+            assertTrue(result.getResults().get(0).hasPassed());
+            assertTrue(result.getResults().get(1).hasPassed());
+            assertFalse(result.getResults().get(2).hasPassed());
+            assertNull(result.getResults().get(3));
+            assertNull(result.getResults().get(4));
+            assertTrue(result.hasSkippedRules());
+        } finally {
+            git.close();
+            threads.shutdown();
+        }
+    }
+}
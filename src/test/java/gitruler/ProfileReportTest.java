@@ -0,0 +1,44 @@
+package gitruler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileReportTest {
+
+    private static RuleProfile profile(String repository, String ruleName, long wallNanos) {
+        Map<String, Object> details = new HashMap<>();
+        details.put("rule", ruleName);
+        return new RuleProfile(repository, new Rule(details), wallNanos, 0, 1, 10, 0, 0);
+    }
+
+    @Test
+    void testPercentile() {
+
+        long[] values = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertEquals(5, ProfileReport.percentile(values, 50));
+        assertEquals(9, ProfileReport.percentile(values, 90));
+        assertEquals(10, ProfileReport.percentile(values, 99));
+        assertEquals(0, ProfileReport.percentile(new long[0], 50));
+    }
+
+    @Test
+    void testAggregateByRuleType() {
+
+        List<RuleProfile> profiles = Arrays.asList(
+                profile("a", "head-exists", 10),
+                profile("b", "head-exists", 30),
+                profile("a", "tag-exists", 100));
+
+        List<ProfileReport.RuleTypeSummary> summaries = ProfileReport.aggregateByRuleType(profiles);
+
+        assertEquals(2, summaries.size());
+        assertEquals("tag-exists", summaries.get(0).ruleName, "Most expensive rule type first");
+        assertEquals(2, summaries.get(1).count);
+        assertEquals(40, summaries.get(1).totalWallNanos);
+        assertEquals(20, summaries.get(1).totalBytesInflated);
+        assertEquals(30, summaries.get(1).maxWallNanos);
+    }
+}
@@ -0,0 +1,42 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryFinderTest {
+
+    @Test
+    void testNestedRepositoriesAreFoundAndSkippedFoldersArent() throws IOException {
+
+        File batch = Files.createTempDirectory("gitruler-batch").toFile();
+        try {
+            File nested = new File(batch, "section-2/student-1");
+            File submodule = new File(batch, "student-2");
+            assertTrue(new File(batch, "section-1/student-1/.git").mkdirs());
+            assertTrue(new File(nested, ".git").mkdirs());
+            assertTrue(submodule.mkdirs());
+            FileUtils.writeStringToFile(new File(submodule, ".git"), "gitdir: ../modules/student-2\n", "UTF-8");
+            assertTrue(new File(batch, "section-2/node_modules/dependency/.git").mkdirs());
+            assertTrue(new File(batch, ".trash/student-3/.git").mkdirs());
+            assertTrue(new File(nested, "inner/.git").mkdirs());
+
+            ConcurrentLinkedQueue<File> found = new ConcurrentLinkedQueue<>();
+            List<File> repositories = new RepositoryFinder(4).find(batch, found::add);
+
+            assertEquals(Arrays.asList(new File(batch, "section-1/student-1"), nested, submodule), repositories);
+            assertEquals(3, found.size());
+            assertTrue(found.containsAll(repositories));
+        } finally {
+            FileUtils.deleteDirectory(batch);
+        }
+    }
+}
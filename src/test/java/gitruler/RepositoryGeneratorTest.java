@@ -0,0 +1,90 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryGeneratorTest {
+
+    private File folder;
+
+    @BeforeEach
+    void createFolder() throws IOException {
+        folder = Files.createTempDirectory("gitruler-generator").toFile();
+    }
+
+    @AfterEach
+    void deleteFolder() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    private static ObjectId resolve(File repositoryFolder, String ref) throws IOException {
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(new File(repositoryFolder, ".git")).setMustExist(true).build()) {
+            return repo.resolve(ref);
+        }
+    }
+
+    @Test
+    void testSameSeedGivesSameRepositories() throws IOException {
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setStudents(2);
+
+        List<File> first = generator.generateCohort(new File(folder, "first"));
+        generator.setPacked(false);
+        List<File> second = generator.generateCohort(new File(folder, "second"));
+
+        assertEquals(resolve(first.get(1), Constants.HEAD), resolve(second.get(1), Constants.HEAD));
+        assertNotEquals(resolve(first.get(0), Constants.HEAD), resolve(first.get(1), Constants.HEAD), "Each student does something different");
+        assertTrue(new File(folder, "first" + File.separator + "gitrules.json").exists());
+    }
+
+    @Test
+    void testStudentsShareTheStarter() throws IOException {
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setStudents(2);
+        generator.setStarterCommits(3);
+        generator.setCommitsPerStudent(4);
+        generator.setBranchesPerStudent(0);
+
+        List<File> students = generator.generateCohort(folder);
+
+        ObjectId starter = resolve(students.get(0), Constants.HEAD + "~4");
+        assertNotNull(starter);
+        assertEquals(starter, resolve(students.get(1), Constants.HEAD + "~4"));
+    }
+
+    @Test
+    void testGeneratedRepositoryCanBeChecked() throws IOException {
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setBranchesPerStudent(1);
+        generator.setMergeProbability(1);
+        generator.generateStudent(folder, 0).close();
+
+        File configFile = new File(folder, "gitrules.json");
+        FileUtils.writeStringToFile(configFile, generator.createConfig().toString(), "UTF-8");
+
+        GitInteractor git = new GitInteractor(folder.getPath());
+        try {
+            for (Rule rule : new GitRulerConfig(configFile).getRules()) {
+                assertTrue(git.checkRule(rule).hasPassed(), rule.getTitle());
+            }
+        } finally {
+            git.close();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositorySizeTest {
+
+    private File folder;
+
+    @BeforeEach
+    void createFolder() throws IOException {
+        folder = Files.createTempDirectory("gitruler-size").toFile();
+    }
+
+    @AfterEach
+    void deleteFolder() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    private static RepositoryGenerator generator(int commits, boolean packed) {
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setStudents(1);
+        generator.setCommitsPerStudent(commits);
+        generator.setBranchesPerStudent(2);
+        generator.setTagsPerStudent(1);
+        generator.setPacked(packed);
+        return generator;
+    }
+
+    @Test
+    void testLooseRepository() throws IOException {
+
+        File student = generator(5, false).generateCohort(folder).get(0);
+        RepositorySize size = RepositorySize.estimate(student);
+
+        assertEquals(0, size.getPackBytes());
+        assertTrue(size.getLooseObjects() > 0);
+        assertEquals(4, size.getRefs(), "master, two branches and a tag");
+    }
+
+    @Test
+    void testBiggerHistoryCostsMore() throws IOException {
+
+        File small = generator(2, true).generateCohort(new File(folder, "small")).get(0);
+        File big = generator(60, true).generateCohort(new File(folder, "big")).get(0);
+
+        RepositorySize smallSize = RepositorySize.estimate(small);
+        RepositorySize bigSize = RepositorySize.estimate(big);
+
+        assertEquals(0, bigSize.getLooseObjects());
+        assertTrue(bigSize.getEstimatedCost() > smallSize.getEstimatedCost());
+    }
+
+    @Test
+    void testBareRepository() throws IOException {
+
+        File student = generator(5, true).generateCohort(folder).get(0);
+        RepositorySize expected = RepositorySize.estimate(student);
+
+        File bare = new File(folder, "student.git");
+        FileUtils.moveDirectory(new File(student, ".git"), bare);
+        RepositorySize size = RepositorySize.estimate(bare);
+
+        assertTrue(expected.getEstimatedCost() > 0);
+        assertEquals(expected.getEstimatedCost(), size.getEstimatedCost());
+    }
+
+    @Test
+    void testRepositoryWithGitFile() throws IOException {
+
+        File student = generator(5, true).generateCohort(folder).get(0);
+        RepositorySize expected = RepositorySize.estimate(student);
+
+        FileUtils.moveDirectory(new File(student, ".git"), new File(folder, "modules/student"));
+        FileUtils.writeStringToFile(new File(student, ".git"), "gitdir: ../modules/student\n", "UTF-8");
+        RepositorySize size = RepositorySize.estimate(student);
+
+        assertTrue(expected.getEstimatedCost() > 0);
+        assertEquals(expected.getEstimatedCost(), size.getEstimatedCost());
+    }
+}
@@ -0,0 +1,114 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositorySnapshotTest {
+
+    private File folder;
+
+    @BeforeEach
+    void createFolder() throws IOException {
+        folder = Files.createTempDirectory("gitruler-snapshot").toFile();
+    }
+
+    @AfterEach
+    void deleteFolder() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Test
+    void testResolvesLikeTheRepository() throws IOException, GitAPIException {
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setBranchesPerStudent(2);
+        generator.setTagsPerStudent(2);
+
+        try (Repository repo = generator.generateStudent(folder, 0)) {
+
+            RepositorySnapshot snapshot = RepositorySnapshot.capture(repo, null);
+
+            String[] revisions = {
+                    Constants.HEAD, Constants.MASTER, Constants.R_HEADS + Constants.MASTER,
+                    RepositoryGenerator.BRANCH_PREFIX + 1, RepositoryGenerator.TAG_PREFIX + 0,
+                    Constants.HEAD + "~1", "no-such-branch"
+            };
+            for (String revision : revisions) {
+                assertEquals(repo.resolve(revision), snapshot.resolve(repo, revision), revision);
+            }
+
+            List<String> branches = Git.wrap(repo).branchList().call().stream().map(Ref::getName).collect(Collectors.toList());
+            assertEquals(branches, snapshot.getBranches().stream().map(Ref::getName).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void testRulesCheckedFromManyThreadsAgree() throws Exception {
+
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setStudents(1);
+        generator.setBranchesPerStudent(1);
+        generator.setMergeProbability(1);
+        File student = generator.generateCohort(folder).get(0);
+
+        // ignored rules write to the working folder, so they are never checked from two threads at once
+        List<Rule> rules = new ArrayList<>();
+        for (Rule rule : new GitRulerConfig(new File(folder, "gitrules.json")).getRules()) {
+            if (!"ignored".equals(rule.getRuleName())) {
+                rules.add(rule);
+            }
+        }
+
+        GitInteractor git = new GitInteractor(student.getPath());
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Boolean> expected = new ArrayList<>();
+            for (Rule rule : rules) {
+                expected.add(git.checkRule(rule).hasPassed());
+            }
+
+            git.buildCommitIndex();
+            git.captureSnapshot();
+
+            List<Future<List<Boolean>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(threads.submit(() -> {
+                    GitInteractor worker = git.createWorker();
+                    try {
+                        List<Boolean> passed = new ArrayList<>();
+                        for (Rule rule : rules) {
+                            passed.add(worker.checkRule(rule).hasPassed());
+                        }
+                        return passed;
+                    } finally {
+                        worker.close();
+                    }
+                }));
+            }
+
+            for (Future<List<Boolean>> result : results) {
+                assertEquals(expected, result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            threads.shutdown();
+            git.close();
+        }
+    }
+}
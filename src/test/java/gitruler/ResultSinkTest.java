@@ -0,0 +1,78 @@
+package gitruler;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultSinkTest {
+
+    private static Rule rule(String name, String title, double score) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("rule", name);
+        map.put("path", "a.txt");
+        map.put("alternative-title", title);
+        if (score > 0) {
+            map.put("score-if-correct", score);
+        }
+        return new Rule(map);
+    }
+
+    private static RepositoryResult result(List<Rule> rules, Boolean... passed) {
+        RepositoryResult result = new RepositoryResult("/cohort/student-1");
+        for (int i = 0; i < rules.size(); i++) {
+            result.add(rules.get(i), passed[i] == null ? null : new RuleResult(passed[i]));
+        }
+        return result;
+    }
+
+    @Test
+    void testCsvHasAColumnForEachScoredRule() throws IOException {
+
+        List<Rule> rules = Arrays.asList(
+                rule("head-exists", "Made a repo", 1),
+                rule("file-tracked-in-head", "Committed a, b", 0),
+                rule("file-untracked-in-head", "Didn't \"commit\" b", 2.5));
+
+        StringWriter out = new StringWriter();
+        try (CsvResultSink sink = new CsvResultSink(out, rules)) {
+            sink.repositoryGraded(result(rules, true, true, null));
+            sink.repositoryFailed(new File("/cohort/student-2"), "not a valid git repository");
+        }
+
+        assertEquals("repository,Made a repo,\"Didn't \"\"commit\"\" b\",total,error\r\n"
+                + "student-1,1,0,1,\r\n"
+                + "student-2,,,,not a valid git repository\r\n", out.toString());
+    }
+
+    @Test
+    void testNdjsonHasALineForEachRuleAndRepository() throws IOException {
+
+        List<Rule> rules = Arrays.asList(
+                rule("head-exists", "Made a repo", 1),
+                rule("file-tracked-in-head", "Committed a", 2));
+
+        StringWriter out = new StringWriter();
+        try (NdjsonResultSink sink = new NdjsonResultSink(out)) {
+            sink.repositoryGraded(result(rules, true, false));
+        }
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(3, lines.length);
+
+        JSONObject failed = new JSONObject(lines[1]);
+        assertEquals("rule", failed.getString("type"));
+        assertEquals(2, failed.getInt("rule-number"));
+        assertFalse(failed.getBoolean("passed"));
+
+        JSONObject repository = new JSONObject(lines[2]);
+        assertEquals("student-1", repository.getString("repository"));
+        assertEquals(1, repository.getDouble("score"));
+        assertEquals(3, repository.getDouble("max-score"));
+    }
+}
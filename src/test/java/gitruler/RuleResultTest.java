@@ -0,0 +1,34 @@
+package gitruler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleResultTest {
+
+    @Test
+    void testTraceIsRenderedWhenAskedFor() {
+
+        RuleResult result = new RuleResult();
+        result.setException(new IllegalStateException("broken"));
+
+        assertTrue(result.exceptionOccurred);
+        assertEquals("broken", result.getExceptionMessage());
+        assertTrue(result.getExceptionTrace().startsWith("java.lang.IllegalStateException: broken"));
+        assertSame(result.getExceptionTrace(), result.getExceptionTrace());
+
+        assertEquals("", new RuleResult().getExceptionTrace());
+    }
+
+    @Test
+    void testTraceBudget() {
+
+        TraceBudget budget = new TraceBudget(2);
+
+        assertTrue(budget.tryRetain());
+        assertTrue(budget.tryRetain());
+        assertFalse(budget.tryRetain());
+        assertFalse(budget.tryRetain());
+        assertEquals(2, budget.getDropped());
+    }
+}
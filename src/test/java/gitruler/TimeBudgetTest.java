@@ -0,0 +1,136 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class TimeBudgetTest {
+
+    private File folder;
+
+    @BeforeEach
+    void createFolder() throws IOException {
+        folder = Files.createTempDirectory("gitruler-timeout").toFile();
+        new RepositoryGenerator().generateStudent(folder, 0).close();
+    }
+
+    @AfterEach
+    void deleteFolder() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    private static Rule countCommits() {
+        Map<String, Object> details = new HashMap<>();
+        details.put("rule", "at-least-a-number-of-commits");
+        details.put("number", 1);
+        return new Rule(details);
+    }
+
+    @Test
+    void testRulesStopOnceTheRepositoryBudgetRunsOut() throws Exception {
+
+        GitInteractor git = new GitInteractor(folder.getPath());
+        try {
+            git.startTimeBudget(1);
+            Thread.sleep(5);
+
+            RuleResult result = git.checkRule(countCommits());
+            assertTrue(result.isTimedOut());
+            assertFalse(result.hasPassed());
+        } finally {
+            git.close();
+        }
+    }
+
+    @Test
+    void testRulesWithinTheirTimeArentStopped() throws IOException {
+
+        Rule rule = countCommits();
+        rule.details.put("timeout-ms", 60_000);
+
+        GitInteractor git = new GitInteractor(folder.getPath());
+        try {
+            git.startTimeBudget(60_000);
+
+            RuleResult result = git.checkRule(rule);
+            assertFalse(result.isTimedOut());
+            assertTrue(result.hasPassed());
+        } finally {
+            git.close();
+        }
+    }
+
+    @Test
+    void testACancelledCheckStopsWithoutTimingOut() throws IOException {
+
+        GitInteractor git = new GitInteractor(folder.getPath());
+        try {
+            CancellationToken stop = CancellationToken.cancellable();
+            assertTrue(git.checkRule(countCommits(), stop).hasPassed());
+
+            stop.cancel();
+            RuleResult result = git.checkRule(countCommits(), stop);
+            assertFalse(result.hasPassed());
+            assertFalse(result.isTimedOut());
+        } finally {
+            git.close();
+        }
+    }
+
+    @Test
+    void testALongWalkIsStoppedPartWay() throws Exception {
+
+        File big = new File(folder, "big");
+        RepositoryGenerator generator = new RepositoryGenerator();
+        generator.setCommitsPerStudent(3000);
+        generator.generateStudent(big, 0).close();
+
+        // walks every commit, diffing its tree for a file that was never committed
+        Map<String, Object> details = new HashMap<>();
+        details.put("rule", "any-commit-message-for-file-contains");
+        details.put("path", "never/committed.txt");
+        details.put("contents", "never written");
+        Rule rule = new Rule(details);
+
+        GitInteractor git = new GitInteractor(big.getPath());
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            long whole = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                assertFalse(git.checkRule(rule).isTimedOut());
+                whole = Math.min(whole, System.nanoTime() - start);
+            }
+            long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(whole) / 10;
+            assumeTrue(timeoutMillis >= 1, "the walk is too quick to stop part way");
+
+            rule.details.put("timeout-ms", timeoutMillis);
+            long start = System.nanoTime();
+            RuleResult result = worker.submit(() -> git.checkRule(rule)).get(10, TimeUnit.SECONDS);
+            long took = System.nanoTime() - start;
+
+            assertTrue(result.isTimedOut());
+            assertFalse(result.hasPassed());
+            assertTrue(took < whole, "stopped after " + took + "ns when the whole walk takes " + whole + "ns");
+
+            // the worker is free for the next rule
+            assertTrue(worker.submit(() -> true).get(1, TimeUnit.SECONDS));
+        } finally {
+            worker.shutdownNow();
+            git.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package gitruler;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorkQueueTest {
+
+    @Test
+    void testOnlyOneMachineClaimsARepositoryUntilItsLeaseGoesStale() throws IOException {
+
+        File batch = Files.createTempDirectory("gitruler-batch").toFile();
+        File queueFolder = new File(batch, "queue");
+        File first = new File(batch, "student-1");
+        File second = new File(batch, "student-2");
+
+        try (WorkQueue a = new WorkQueue(batch, queueFolder, "a", 60_000);
+             WorkQueue b = new WorkQueue(batch, queueFolder, "b", 60_000)) {
+
+            assertTrue(a.claim(first));
+            assertFalse(b.claim(first));
+
+            a.complete(first);
+            assertFalse(b.claim(first));
+
+            // a machine that stopped an hour ago
+            assertTrue(a.claim(second));
+            try (Stream<Path> leases = Files.list(queueFolder.toPath().resolve("leases"))) {
+                Path lease = leases.findFirst().orElseThrow(IllegalStateException::new);
+                Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+            }
+            assertTrue(b.claim(second));
+            assertFalse(a.claim(second));
+        } finally {
+            FileUtils.deleteDirectory(batch);
+        }
+    }
+
+    @Test
+    void testAMachineThatLostItsLeaseLeavesTheNewOneAlone() throws IOException {
+
+        File batch = Files.createTempDirectory("gitruler-batch").toFile();
+        File queueFolder = new File(batch, "queue");
+        File student = new File(batch, "student-1");
+        Path lease = queueFolder.toPath().resolve("leases").resolve("student-1");
+
+        try (WorkQueue b = new WorkQueue(batch, queueFolder, "b", 60_000)) {
+            try (WorkQueue a = new WorkQueue(batch, queueFolder, "a", 60_000)) {
+
+                // a stalls for an hour and b takes over
+                assertTrue(a.claim(student));
+                Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - 3_600_000));
+                assertTrue(b.claim(student));
+
+                a.release(student);
+                assertTrue(Files.exists(lease));
+            }
+            assertTrue(Files.exists(lease));
+
+            WorkQueue c = new WorkQueue(batch, queueFolder, "c", 60_000);
+            assertFalse(c.claim(student));
+            c.close();
+
+            b.complete(student);
+            assertFalse(Files.exists(lease));
+        } finally {
+            FileUtils.deleteDirectory(batch);
+        }
+    }
+
+    @Test
+    void testALeaseLeftBehindByAStoppedMachineIsTakenOver() throws IOException {
+
+        File batch = Files.createTempDirectory("gitruler-batch").toFile();
+        File queueFolder = Files.createTempDirectory("gitruler-queue").toFile();
+
+        try {
+            RepositoryGenerator generator = new RepositoryGenerator();
+            generator.setStudents(3);
+            generator.setCommitsPerStudent(2);
+            List<File> folders = generator.generateCohort(batch);
+
+            // a machine claimed the second and stopped without finishing it or giving it up
+            File abandoned = folders.get(1);
+            Path leases = Files.createDirectories(queueFolder.toPath().resolve("leases"));
+            Files.write(leases.resolve(abandoned.getName()), "stopped 1\n".getBytes(StandardCharsets.UTF_8));
+
+            List<String> graded = new ArrayList<>();
+            try (WorkQueue queue = new WorkQueue(batch, queueFolder, "a", 300)) {
+                BatchRunner runner = new BatchRunner(new RepositoryGrader(new GitRulerConfig(new File(batch, "gitrules.json"))));
+                runner.setWorkQueue(queue);
+                runner.run(batch, new BatchRunner.Listener<String>() {
+                    @Override
+                    public String repositoryGraded(RepositoryResult result) {
+                        return result.getRepositoryName();
+                    }
+
+                    @Override
+                    public String repositoryFailed(File folder, Throwable cause) {
+                        return null;
+                    }
+
+                    @Override
+                    public void inOrder(String kept) {
+                        graded.add(kept);
+                    }
+                });
+
+                for (File folder : folders) {
+                    assertTrue(queue.isDone(folder));
+                }
+            }
+
+            List<String> expected = new ArrayList<>();
+            expected.add(folders.get(0).getName());
+            expected.add(folders.get(2).getName());
+            expected.add(abandoned.getName());
+            assertEquals(expected, graded, "The one taken over comes last");
+        } finally {
+            FileUtils.deleteDirectory(batch);
+            FileUtils.deleteDirectory(queueFolder);
+        }
+    }
+}